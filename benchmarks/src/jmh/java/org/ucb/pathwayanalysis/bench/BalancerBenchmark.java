@@ -0,0 +1,96 @@
+package org.ucb.pathwayanalysis.bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.ucb.pathwayanalysis.PathwayBalancer;
+import org.ucb.pathwayanalysis.PathwayParser;
+import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.Pathway;
+
+/**
+ * Times PathwayBalancer.run with each solve method, on the shipped
+ * pathways and on synthetic ones.  The dense methods are O(n^3), so the
+ * largest synthetic size is left to the sparse method.
+ *
+ * @author J. Christopher Anderson
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BalancerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class DataFile {
+        @Param({"glycolysis.txt", "ethanol.txt", "pimar.txt", "glycerol_to_pimar.txt"})
+        public String file;
+
+        @Param({"EXACT", "DENSE", "SPARSE", "FBA", "LEAST_SQUARES"})
+        public PathwayBalancer.Method method;
+
+        public Pathway path;
+        public PathwayBalancer balancer;
+
+        @Setup
+        public void setup() throws Exception {
+            path = new PathwayParser().run(BenchmarkData.readDataFile(file));
+            balancer = new PathwayBalancer(method);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Synthetic {
+        @Param({"10", "100", "1000"})
+        public int reactions;
+
+        @Param({"EXACT", "DENSE", "SPARSE", "FBA", "LEAST_SQUARES"})
+        public PathwayBalancer.Method method;
+
+        public Pathway path;
+        public PathwayBalancer balancer;
+
+        @Setup
+        public void setup() throws Exception {
+            String text = new SyntheticPathwayGenerator(BenchmarkData.SEED).generate(reactions);
+            path = new PathwayParser().run(text);
+            balancer = new PathwayBalancer(method);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LargeSynthetic {
+        @Param({"1000", "10000"})
+        public int reactions;
+
+        public Pathway path;
+        public PathwayBalancer balancer;
+
+        @Setup
+        public void setup() throws Exception {
+            String text = new SyntheticPathwayGenerator(BenchmarkData.SEED).generate(reactions);
+            path = new PathwayParser().run(text);
+            balancer = new PathwayBalancer(PathwayBalancer.Method.SPARSE);
+        }
+    }
+
+    @Benchmark
+    public Map<Chem, Integer> balanceDataFile(DataFile data) throws Exception {
+        return data.balancer.run(data.path);
+    }
+
+    @Benchmark
+    public Map<Chem, Integer> balanceSynthetic(Synthetic data) throws Exception {
+        return data.balancer.run(data.path);
+    }
+
+    @Benchmark
+    public Map<Chem, Integer> balanceLargeSparse(LargeSynthetic data) throws Exception {
+        return data.balancer.run(data.path);
+    }
+}
@@ -0,0 +1,21 @@
+package org.ucb.pathwayanalysis.bench;
+
+import java.io.File;
+import org.ucb.act.utils.FileUtils;
+
+/**
+ * Locates the pathway files in data/ for the benchmarks.  The directory is
+ * taken from the pathway.data system property, which the Gradle jmh task
+ * sets.
+ *
+ * @author J. Christopher Anderson
+ */
+public class BenchmarkData {
+
+    public static final long SEED = 132;
+
+    public static String readDataFile(String name) throws Exception {
+        String dir = System.getProperty("pathway.data", "data");
+        return FileUtils.readFile(dir + File.separator + name);
+    }
+}
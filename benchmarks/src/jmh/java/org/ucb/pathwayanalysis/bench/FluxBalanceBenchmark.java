@@ -0,0 +1,62 @@
+package org.ucb.pathwayanalysis.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.ucb.pathwayanalysis.FluxBalanceAnalysis;
+import org.ucb.pathwayanalysis.PathwayParser;
+import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.Pathway;
+
+/**
+ * Times a sweep of ten uptake rates with FluxBalanceAnalysis, re-solving
+ * warm from the previous optimum against building a fresh program for each
+ * rate.
+ *
+ * @author J. Christopher Anderson
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class FluxBalanceBenchmark {
+
+    @Param({"chorismate.txt", "pimar.txt", "glycerol_to_pimar.txt"})
+    public String file;
+
+    private Pathway path;
+    private Chem input;
+
+    @Setup
+    public void setup() throws Exception {
+        path = new PathwayParser().run(BenchmarkData.readDataFile(file));
+        input = path.getInputs().iterator().next();
+    }
+
+    @Benchmark
+    public double sweepWarm() throws Exception {
+        FluxBalanceAnalysis fba = new FluxBalanceAnalysis(path);
+        double total = 0;
+        for (int uptake = 1; uptake <= 10; uptake++) {
+            fba.setUptakeLimit(input, uptake);
+            total += fba.run().getObjective();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double sweepCold() throws Exception {
+        double total = 0;
+        for (int uptake = 1; uptake <= 10; uptake++) {
+            FluxBalanceAnalysis fba = new FluxBalanceAnalysis(path);
+            fba.setUptakeLimit(input, uptake);
+            total += fba.run().getObjective();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,43 @@
+package org.ucb.pathwayanalysis.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.ucb.pathwayanalysis.KnockoutScan;
+import org.ucb.pathwayanalysis.PathwayParser;
+import org.ucb.pathwayanalysis.model.KnockoutTable;
+import org.ucb.pathwayanalysis.model.Pathway;
+
+/**
+ * Times a scan of every single and double reaction knockout of synthetic
+ * pathways.
+ *
+ * @author J. Christopher Anderson
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class KnockoutBenchmark {
+
+    @Param({"10", "50", "100"})
+    public int reactions;
+
+    private Pathway path;
+
+    @Setup
+    public void setup() throws Exception {
+        String text = new SyntheticPathwayGenerator(BenchmarkData.SEED).generate(reactions);
+        path = new PathwayParser().run(text);
+    }
+
+    @Benchmark
+    public KnockoutTable scanPairs() throws Exception {
+        return new KnockoutScan().runPairs(path);
+    }
+}
@@ -0,0 +1,51 @@
+package org.ucb.pathwayanalysis.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.ucb.pathwayanalysis.MassValidator;
+import org.ucb.pathwayanalysis.MolPropertyCache;
+import org.ucb.pathwayanalysis.PathwayParser;
+import org.ucb.pathwayanalysis.model.Pathway;
+
+/**
+ * Times MassValidator.run on the shipped pathways, both cold (every InChI
+ * read afresh) and warm (every property already cached).
+ *
+ * @author J. Christopher Anderson
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class MassValidatorBenchmark {
+
+    @Param({"glycolysis.txt", "ethanol.txt", "pimar.txt", "glycerol_to_pimar.txt"})
+    public String file;
+
+    private Pathway path;
+    private MassValidator warm;
+
+    @Setup
+    public void setup() throws Exception {
+        path = new PathwayParser().run(BenchmarkData.readDataFile(file));
+        warm = new MassValidator(new MolPropertyCache(MolPropertyCache.DEFAULT_CAPACITY));
+        warm.run(path);
+    }
+
+    @Benchmark
+    public boolean validateCold() throws Exception {
+        MassValidator cold = new MassValidator(new MolPropertyCache(MolPropertyCache.DEFAULT_CAPACITY));
+        return cold.run(path);
+    }
+
+    @Benchmark
+    public boolean validateWarm() throws Exception {
+        return warm.run(path);
+    }
+}
@@ -0,0 +1,60 @@
+package org.ucb.pathwayanalysis.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.ucb.pathwayanalysis.PathwayParser;
+import org.ucb.pathwayanalysis.model.Pathway;
+
+/**
+ * Times PathwayParser.run on the shipped pathways and on synthetic ones of
+ * increasing size.
+ *
+ * @author J. Christopher Anderson
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class DataFile {
+        @Param({"glycolysis.txt", "ethanol.txt", "pimar.txt", "glycerol_to_pimar.txt"})
+        public String file;
+
+        public String text;
+
+        @Setup
+        public void setup() throws Exception {
+            text = BenchmarkData.readDataFile(file);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Synthetic {
+        @Param({"10", "100", "1000", "10000"})
+        public int reactions;
+
+        public String text;
+
+        @Setup
+        public void setup() {
+            text = new SyntheticPathwayGenerator(BenchmarkData.SEED).generate(reactions);
+        }
+    }
+
+    @Benchmark
+    public Pathway parseDataFile(DataFile data) throws Exception {
+        return new PathwayParser().run(data.text);
+    }
+
+    @Benchmark
+    public Pathway parseSynthetic(Synthetic data) throws Exception {
+        return new PathwayParser().run(data.text);
+    }
+}
@@ -0,0 +1,81 @@
+package org.ucb.pathwayanalysis.bench;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.ucb.pathwayanalysis.PathwayLibrary;
+import org.ucb.pathwayanalysis.PathwayParser;
+import org.ucb.pathwayanalysis.model.Pathway;
+
+/**
+ * Compares loading a library of synthetic pathways by parsing their text
+ * with opening it as a PathwayLibrary, and with reading every pathway
+ * back out of the library as a CompiledPathway.
+ *
+ * @author J. Christopher Anderson
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PathwayLibraryBenchmark {
+
+    //Reactions in each synthetic pathway
+    private static final int REACTIONS = 20;
+
+    @State(Scope.Benchmark)
+    public static class Library {
+        @Param({"1000", "100000"})
+        public int pathways;
+
+        public String text;
+        public File file;
+        public PathwayLibrary library;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < pathways; i++) {
+                sb.append(new SyntheticPathwayGenerator(BenchmarkData.SEED + i).generate(REACTIONS));
+            }
+            text = sb.toString();
+            List<Pathway> paths = new PathwayParser().runAll(new StringReader(text));
+            file = File.createTempFile("pathways", ".lib");
+            PathwayLibrary.write(paths, file.getPath());
+            library = PathwayLibrary.open(file.getPath());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public List<Pathway> parseText(Library data) throws Exception {
+        return new PathwayParser().runAll(new StringReader(data.text));
+    }
+
+    @Benchmark
+    public int openLibrary(Library data) throws Exception {
+        return PathwayLibrary.open(data.file.getPath()).size();
+    }
+
+    @Benchmark
+    public int compileAll(Library data) {
+        int rxns = 0;
+        for (int i = 0; i < data.library.size(); i++) {
+            rxns += data.library.get(i).toCompiled().getRxnCount();
+        }
+        return rxns;
+    }
+}
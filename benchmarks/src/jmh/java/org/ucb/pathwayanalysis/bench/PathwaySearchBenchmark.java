@@ -0,0 +1,59 @@
+package org.ucb.pathwayanalysis.bench;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.ucb.pathwayanalysis.PathwayParser;
+import org.ucb.pathwayanalysis.PathwaySearch;
+import org.ucb.pathwayanalysis.ReactionGraph;
+import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.Pathway;
+
+/**
+ * Times the search for the three best routes from glucose to a target over
+ * the graph of every pathway in data/, the graph being built once as it
+ * would be for interactive queries.
+ *
+ * @author J. Christopher Anderson
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class PathwaySearchBenchmark {
+
+    private static final String[] FILES = {"13-propanediol.txt", "butanol.txt", "chorismate.txt",
+        "ethanol.txt", "glycerol_to_pimar.txt", "glycolysis.txt", "mevalonate.txt", "pimar.txt"};
+
+    @Param({"ethanol", "butanol", "pimar"})
+    public String target;
+
+    private ReactionGraph graph;
+    private Set<Chem> inputs;
+
+    @Setup
+    public void setup() throws Exception {
+        List<Pathway> paths = new ArrayList<>();
+        for (String file : FILES) {
+            paths.add(new PathwayParser().run(BenchmarkData.readDataFile(file)));
+        }
+        graph = new ReactionGraph(paths);
+        inputs = new HashSet<>();
+        inputs.add(graph.findChem("glucose"));
+    }
+
+    @Benchmark
+    public List<Pathway> search() throws Exception {
+        //A fresh search each time, so the reachability bounds are not cached
+        return new PathwaySearch(graph).run(inputs, graph.findChem(target), 3);
+    }
+}
@@ -0,0 +1,64 @@
+package org.ucb.pathwayanalysis.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.ucb.pathwayanalysis.CofactorProfile;
+import org.ucb.pathwayanalysis.ExactSolver;
+import org.ucb.pathwayanalysis.PathwayParser;
+import org.ucb.pathwayanalysis.SolveLinearEquation;
+import org.ucb.pathwayanalysis.SparseLU;
+import org.ucb.pathwayanalysis.SparseMatrix;
+import org.ucb.pathwayanalysis.StoichiometricMatrix;
+import org.ucb.pathwayanalysis.model.Pathway;
+
+/**
+ * Times the linear solvers alone on the stoichiometric systems of synthetic
+ * pathways, excluding parsing and matrix construction.
+ *
+ * @author J. Christopher Anderson
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class SolverBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int reactions;
+
+    private SparseMatrix sparse;
+    private double[][] dense;
+    private double[] objective;
+
+    @Setup
+    public void setup() throws Exception {
+        String text = new SyntheticPathwayGenerator(BenchmarkData.SEED).generate(reactions);
+        Pathway path = new PathwayParser().run(text);
+        StoichiometricMatrix matrix = new StoichiometricMatrix(path, CofactorProfile.getDefault().getCofactors());
+        int n = Math.max(matrix.getRxnCount(), matrix.getChemCount());
+        sparse = matrix.getSquareMatrix(n);
+        dense = sparse.toDense(n);
+        objective = matrix.getObjective(n);
+    }
+
+    @Benchmark
+    public double[] solveDense() throws Exception {
+        return new SolveLinearEquation().run(dense, objective);
+    }
+
+    @Benchmark
+    public double[] solveSparse() throws Exception {
+        return SparseLU.factor(sparse).solve(objective);
+    }
+
+    @Benchmark
+    public long[] solveExact() throws Exception {
+        return new ExactSolver().run(sparse, objective);
+    }
+}
@@ -0,0 +1,90 @@
+package org.ucb.pathwayanalysis.bench;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic pathways in the @name/@inputs/@outputs/@reactions/
+ * @chemicals text format, for measuring how parsing and balancing scale
+ * with pathway size.  The same seed always gives the same pathway.
+ *
+ * A pathway of n reactions converts the input S0 through intermediates C1
+ * to Cn, the output.  Reaction i makes Ci from C(i-1), so the balancing
+ * system is square and non-singular.  Along the way reactions randomly
+ * take up extra inputs and consume or regenerate ATP and NAD(P)H, and some
+ * run at a stoichiometry of 2, so the matrices and balances look like
+ * those of real pathways.  Chemicals carry the placeholder InChI "null",
+ * as in abstract_example.txt, so the result cannot be mass validated.
+ *
+ * @author J. Christopher Anderson
+ */
+public class SyntheticPathwayGenerator {
+
+    private final long seed;
+
+    public SyntheticPathwayGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public String generate(int rxnCount) {
+        Random random = new Random(seed);
+        StringBuilder reactions = new StringBuilder();
+        StringBuilder inputs = new StringBuilder("S0\r");
+        StringBuilder chemicals = new StringBuilder("S0\tnull\r");
+        int extraInputs = 0;
+
+        for (int i = 1; i <= rxnCount; i++) {
+            String prev = i == 1 ? "S0" : "C" + (i - 1);
+            String next = "C" + i;
+            String stoich = random.nextInt(10) == 0 ? "2 " : "";
+
+            StringBuilder subs = new StringBuilder(stoich + prev);
+            StringBuilder pdts = new StringBuilder(stoich + next);
+
+            //Take up an additional input now and then
+            if (random.nextInt(8) == 0) {
+                extraInputs++;
+                String extra = "S" + extraInputs;
+                subs.append(" + ").append(extra);
+                inputs.append(extra).append("\r");
+                chemicals.append(extra).append("\tnull\r");
+            }
+
+            //Use or regenerate a cofactor
+            switch (random.nextInt(6)) {
+                case 0:
+                    subs.append(" + ATP");
+                    pdts.append(" + ADP + Pi");
+                    break;
+                case 1:
+                    subs.append(" + ADP + Pi");
+                    pdts.append(" + ATP + H2O");
+                    break;
+                case 2:
+                    subs.append(" + NADH + H+");
+                    pdts.append(" + NAD+");
+                    break;
+                case 3:
+                    subs.append(" + NADP+");
+                    pdts.append(" + NADPH + H+");
+                    break;
+                default:
+                    break;
+            }
+
+            reactions.append(subs).append(" --> ").append(pdts).append("\r");
+            chemicals.append(next).append("\tnull\r");
+        }
+
+        for (String cofactor : new String[]{"ATP", "ADP", "Pi", "H2O", "H+", "NAD+", "NADH", "NADP+", "NADPH"}) {
+            chemicals.append(cofactor).append("\tnull\r");
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("@name:\tsynthetic ").append(rxnCount).append(" seed ").append(seed).append("\r");
+        sb.append("@inputs:\r").append(inputs);
+        sb.append("@outputs:\rC").append(rxnCount).append("\r");
+        sb.append("@reactions:\r").append(reactions);
+        sb.append("@chemicals:\r").append(chemicals);
+        return sb.toString();
+    }
+}
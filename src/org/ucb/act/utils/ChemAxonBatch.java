@@ -0,0 +1,131 @@
+package org.ucb.act.utils;
+
+import chemaxon.formats.MolImporter;
+import chemaxon.struc.RxnMolecule;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Converts whole lists of molecules and reactions through ChemAxon at once,
+ * spread over a fork-join pool.  Each worker takes a run of consecutive
+ * inputs, and an input repeated anywhere in the batch is converted only
+ * once.  Unlike the one-at-a-time methods of ChemAxonUtils, a failure is
+ * not swallowed as null: every input gets a Conversion, in input order,
+ * holding either its value or the reason it failed.
+ *
+ * dedupeReactions() groups a reaction library by the canonical hash of
+ * ChemAxonUtils.reactionHash(), so each distinct reaction is kept once.
+ *
+ * @author J. Christopher Anderson
+ */
+public class ChemAxonBatch {
+
+    //Inputs per task
+    private static final int CHUNK_SIZE = 256;
+
+    private final ForkJoinPool pool;
+
+    public ChemAxonBatch() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ChemAxonBatch(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public List<Conversion> smilesToInchi(List<String> smiles) throws Exception {
+        return convertAll(smiles, input -> ChemAxonUtils.convert(input, ChemAxonUtils.INCHI_FORMAT));
+    }
+
+    public List<Conversion> inchiToSmiles(List<String> inchis) throws Exception {
+        return convertAll(inchis, input -> ChemAxonUtils.convert(input, ChemAxonUtils.SMILES_FORMAT));
+    }
+
+    /**
+     * Hashes reactions given as reaction SMILES
+     */
+    public List<Conversion> reactionHashes(List<String> smilesRxns) throws Exception {
+        return convertAll(smilesRxns, input -> {
+            RxnMolecule rxn = RxnMolecule.getReaction(MolImporter.importMol(input));
+            if (rxn == null) {
+                throw new Exception("Not a reaction");
+            }
+            return ChemAxonUtils.reactionHash(rxn);
+        });
+    }
+
+    /**
+     * Groups reactions given as reaction SMILES by their hash.  Reactions
+     * that fail to hash are left out.
+     *
+     * @return the indices of the reactions with each hash, in order of first
+     * appearance
+     */
+    public Map<String, List<Integer>> dedupeReactions(List<String> smilesRxns) throws Exception {
+        List<Conversion> hashes = reactionHashes(smilesRxns);
+        Map<String, List<Integer>> out = new LinkedHashMap<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            Conversion hash = hashes.get(i);
+            if (hash.isSuccess()) {
+                out.computeIfAbsent(hash.getValue(), key -> new ArrayList<>()).add(i);
+            }
+        }
+        return out;
+    }
+
+    private List<Conversion> convertAll(List<String> inputs, Converter converter) throws Exception {
+        Conversion[] out = new Conversion[inputs.size()];
+        Map<String, Conversion> memo = new ConcurrentHashMap<>();
+        int chunks = (inputs.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            int to = Math.min(inputs.size(), (chunk + 1) * CHUNK_SIZE);
+            for (int i = chunk * CHUNK_SIZE; i < to; i++) {
+                String input = inputs.get(i);
+                if (input == null) {
+                    //Such as a chemical with no InChI; the memo cannot hold a null key
+                    out[i] = Conversion.failure(null, "no input");
+                    continue;
+                }
+                Conversion result = memo.get(input);
+                if (result == null) {
+                    try {
+                        result = Conversion.success(input, converter.apply(input));
+                    } catch (Exception err) {
+                        result = Conversion.failure(input, err.getMessage() == null ? err.toString() : err.getMessage());
+                    }
+                    memo.putIfAbsent(input, result);
+                }
+                out[i] = result;
+            }
+        })).get();
+        return Arrays.asList(out);
+    }
+
+    private interface Converter {
+        String apply(String input) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ChemAxonUtils.license();
+
+        List<String> rxns = new ArrayList<>();
+        rxns.add("CCO>>CC=O");
+        rxns.add("OCC>>O=CC");
+        rxns.add("CC=O.O>>CC(O)=O");
+        rxns.add("O.CC=O>>CC(O)=O");
+        rxns.add("not a reaction");
+
+        ChemAxonBatch batch = new ChemAxonBatch();
+        for (Conversion hash : batch.reactionHashes(rxns)) {
+            System.out.println(hash);
+        }
+        System.out.println(batch.dedupeReactions(rxns));
+    }
+}
@@ -7,14 +7,17 @@ import chemaxon.license.LicenseManager;
 import chemaxon.struc.*;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * Created by jca20n on 10/29/15.
  */
 public class ChemAxonUtils {
 
+    public static final String INCHI_FORMAT = "inchi:AuxNone,Woff";
+    public static final String SMILES_FORMAT = "smiles:a-H";
+
     public static void main(String[] args) throws Exception {
 //        license();
 //        String smiles = InchiToSmiles("InChI=1S/C2H6O/c1-2-3/h3H,2H2,1H3");
@@ -30,16 +33,24 @@ public class ChemAxonUtils {
 
     public static String SmilesToInchi(String smiles) {
         try {
-            Molecule mol = MolImporter.importMol(smiles);
-            return MolExporter.exportToFormat(mol, "inchi:AuxNone,Woff");
+            return convert(smiles, INCHI_FORMAT);
         } catch (Exception err) {
             return null;
         }
     }
 
+    /**
+     * Imports a molecule in any format ChemAxon recognizes and exports it in
+     * the given one, throwing rather than returning null on failure
+     */
+    public static String convert(String input, String format) throws Exception {
+        Molecule mol = MolImporter.importMol(input);
+        return MolExporter.exportToFormat(mol, format);
+    }
+
     public static String toInchi(Molecule mol) {
         try {
-            return MolExporter.exportToFormat(mol, "inchi:AuxNone,Woff");
+            return MolExporter.exportToFormat(mol, INCHI_FORMAT);
         } catch (IOException e) {
             return null;
         }
@@ -60,7 +71,7 @@ public class ChemAxonUtils {
 
     public static String toSmiles(Molecule mol) {
         try {
-            return MolExporter.exportToFormat(mol, "smiles:a-H");
+            return MolExporter.exportToFormat(mol, SMILES_FORMAT);
         } catch (Exception err) {
 //            err.printStackTrace();
             return null;
@@ -69,24 +80,31 @@ public class ChemAxonUtils {
 
     public static String toSmilesSimplify(Molecule input) {
         try {
-            Molecule mol = input.clone();
-            for (int i = 0; i < mol.getAtomCount(); i++) {
-                mol.getAtom(i).clear();
-            }
-            for (int b = 0; b < mol.getBondCount(); b++) {
-                mol.getBond(b).setType(1);
-            }
-            return MolExporter.exportToFormat(mol, "smiles:a-H");
+            return simplify(input);
         } catch (Exception err) {
             err.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * @return the SMILES of a molecule's skeleton, with atom properties
+     * cleared and every bond single
+     */
+    private static String simplify(Molecule input) throws Exception {
+        Molecule mol = input.clone();
+        for (int i = 0; i < mol.getAtomCount(); i++) {
+            mol.getAtom(i).clear();
+        }
+        for (int b = 0; b < mol.getBondCount(); b++) {
+            mol.getBond(b).setType(1);
+        }
+        return MolExporter.exportToFormat(mol, SMILES_FORMAT);
+    }
+
     public static String InchiToSmiles(String inchi) {
         try {
-            Molecule mol = MolImporter.importMol(inchi);
-            return MolExporter.exportToFormat(mol, "smiles:a-H");
+            return convert(inchi, SMILES_FORMAT);
         } catch (Exception err) {
             return null;
         }
@@ -96,10 +114,7 @@ public class ChemAxonUtils {
         //https://docs.chemaxon.com/display/FF/Image+Export+in+Marvin#ImageExportinMarvin-exportOptions
         try {
             byte[] graphics = MolExporter.exportToBinFormat(mol, "svg:w300,h150,amap");
-            File gfile = new File(filename);
-            FileOutputStream fos = null;
-            fos = new FileOutputStream(gfile);
-            fos.write(graphics);
+            FileUtils.writeBytes(Paths.get(filename), graphics);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -109,10 +124,7 @@ public class ChemAxonUtils {
         //https://docs.chemaxon.com/display/FF/Image+Export+in+Marvin#ImageExportinMarvin-exportOptions
         try {
             byte[] graphics = MolExporter.exportToBinFormat(mol, "png:w900,h450,amap");
-            File gfile = new File(filename);
-            FileOutputStream fos = null;
-            fos = new FileOutputStream(gfile);
-            fos.write(graphics);
+            FileUtils.writeBytes(Paths.get(filename), graphics);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -139,34 +151,43 @@ public class ChemAxonUtils {
         return reaction;
     }
 
+    /**
+     * @return the reaction's hash, or null if any part of it fails to convert
+     */
     public static String getReactionHash(RxnMolecule cro) {
-        StringBuilder out = new StringBuilder();
+        try {
+            return reactionHash(cro);
+        } catch (Exception err) {
+            return null;
+        }
+    }
 
+    /**
+     * Hashes a reaction as the InChI of its simplified substrates and of its
+     * simplified products.  InChI orders the components of a mixture
+     * canonically, so the hash does not depend on the order in which the
+     * substrates or products are written.
+     */
+    public static String reactionHash(RxnMolecule cro) throws Exception {
         //Re-express the reaction as a single substrate smiles and product smiles
-        String subs = "";
-        Molecule[] reactants = cro.getReactants();
-        for (int i = 0; i < reactants.length; i++) {
-            if (i > 0) {
-                subs += ".";
-            }
-            Molecule mol = reactants[i];
-            subs += toSmilesSimplify(mol);
-        }
+        String subs = joinSimplified(cro.getReactants());
+        String prods = joinSimplified(cro.getProducts());
+
+        StringBuilder out = new StringBuilder();
+        out.append(convert(subs, INCHI_FORMAT));
+        out.append(">>");
+        out.append(convert(prods, INCHI_FORMAT));
+        return out.toString();
+    }
 
-        //Repeat for the produts
-        String prods = "";
-        Molecule[] products = cro.getProducts();
-        for (int i = 0; i < products.length; i++) {
+    private static String joinSimplified(Molecule[] mols) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mols.length; i++) {
             if (i > 0) {
-                prods += ".";
+                sb.append(".");
             }
-            Molecule mol = reactants[i];
-            prods += toSmilesSimplify(mol);
+            sb.append(simplify(mols[i]));
         }
-
-        String subInchi = SmilesToInchi(subs);
-        String prodInchi = SmilesToInchi(prods);
-
-        return subInchi + ">>" + prodInchi;
+        return sb.toString();
     }
 }
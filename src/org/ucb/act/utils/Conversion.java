@@ -0,0 +1,54 @@
+package org.ucb.act.utils;
+
+/**
+ * The outcome of converting one input in a batch: either the converted
+ * value, or why it could not be converted.
+ *
+ * @author J. Christopher Anderson
+ */
+public final class Conversion {
+    private final String input;
+    private final String value;
+    private final String error;
+
+    private Conversion(String input, String value, String error) {
+        this.input = input;
+        this.value = value;
+        this.error = error;
+    }
+
+    public static Conversion success(String input, String value) {
+        return new Conversion(input, value, null);
+    }
+
+    public static Conversion failure(String input, String error) {
+        return new Conversion(input, null, error);
+    }
+
+    public String getInput() {
+        return input;
+    }
+
+    /**
+     * @return the converted value, or null if the conversion failed
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return why the conversion failed, or null if it succeeded
+     */
+    public String getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? input + " -> " + value : input + " failed: " + error;
+    }
+}
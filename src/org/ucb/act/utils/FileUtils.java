@@ -2,20 +2,32 @@
 package org.ucb.act.utils;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.Stream;
 
 /**
  * @author sixpi
  */
 public class FileUtils {
+
+    //Files larger than this are memory-mapped rather than copied onto the heap
+    private static final long MAP_THRESHOLD = 16 * 1024 * 1024;
+
     /**
      * dump an InputStream, returning a newly created byte[] array
      * @author Kelvin Li
@@ -24,27 +36,21 @@ public class FileUtils {
                                         throws IOException {
         int lastindex = 0;
         int increment;
-        byte[] A = new byte[2048];
-        byte[] B;
-        do {
-            B = new byte[2*A.length];
-            System.arraycopy(A, 0, B, 0, A.length);
-            A = B;
-            try {
-                increment = instream.read(A, lastindex, A.length - lastindex);
-            } catch (IOException e) {
-                throw e;
+        byte[] A = new byte[8192];
+        while (true) {
+            /* only grow the buffer once it is full */
+            if (lastindex == A.length) {
+                A = Arrays.copyOf(A, 2*A.length);
             }
+            increment = instream.read(A, lastindex, A.length - lastindex);
             if (increment == -1)
                 /* EOF, no characters read */
                 break;
             lastindex += increment;
-        } while (lastindex >= A.length);
+        }
 
         /* copy A into B of precisely correct length */
-        B = new byte[lastindex];
-        System.arraycopy(A, 0, B, 0, B.length);
-        return B;
+        return Arrays.copyOf(A, lastindex);
     }
 
     /**
@@ -68,7 +74,7 @@ public class FileUtils {
         try {
             Writer output = null;
             File file = new File(filePath);
-            output = new FileWriter(file);
+            output = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
             output.write(datafile);
             output.close();
         } catch (IOException ex) {
@@ -112,23 +118,79 @@ public class FileUtils {
             throw new Exception();
         }
 
-        FileInputStream s;
-        try {
-            s = new FileInputStream(f);
-        } catch (FileNotFoundException e) {
-            System.err.println("File not found: " + path);
-            throw e;
-        }
-
-        byte[] content;
-        try {
-            content = dumpInputStream(s);
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer content;
+            if (size > MAP_THRESHOLD) {
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                content = readFully(channel, (int) size);
+            }
+            return StandardCharsets.UTF_8.decode(content).toString();
         } catch (IOException e) {
             System.err.println("Error reading: " + path);
             throw e;
         }
+    }
 
-        return new String(content);    }
+    /**
+     * Reads a whole file into an array sized from the file length
+     */
+    public static byte[] readBytes(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to read into memory: " + path);
+            }
+            return readFully(channel, (int) size).array();
+        }
+    }
+
+    /**
+     * Writes a whole array to a file through a channel, replacing any file
+     * already there
+     */
+    public static void writeBytes(Path path, byte[] data) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Memory-maps a whole file read-only.  The mapping stays valid after the
+     * channel used to create it is closed.
+     */
+    public static MappedByteBuffer mapFile(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Lazily walks a directory tree, yielding the regular files with the
+     * given extension (without the .) as they are found.  The stream holds
+     * open directory handles, so close it, e.g. with try-with-resources.
+     */
+    public static Stream<Path> walkFiles(String dir, String extension) throws IOException {
+        return Files.walk(Paths.get(dir))
+                .filter(Files::isRegularFile)
+                .filter(file -> isFileType(file.getFileName().toString(), extension));
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
 
     public static void writeResourceFile(String datafile, String relPath) throws Exception {
         OutputStream os = new FileOutputStream(relPath);
@@ -0,0 +1,265 @@
+package org.ucb.act.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal JSON reader and writer for the line-based protocols, so they
+ * need no library.  Objects are read as LinkedHashMaps, arrays as Lists,
+ * whole numbers as Longs and other numbers as Doubles.
+ *
+ * @author J. Christopher Anderson
+ */
+public class Json {
+
+    public static Object parse(String text) throws Exception {
+        Json reader = new Json(text);
+        reader.skipSpace();
+        Object out = reader.readValue();
+        reader.skipSpace();
+        if (reader.pos != text.length()) {
+            reader.fail("trailing characters");
+        }
+        return out;
+    }
+
+    public static String write(Object value) {
+        StringBuilder sb = new StringBuilder();
+        write(value, sb);
+        return sb.toString();
+    }
+
+    private static void write(Object value, StringBuilder sb) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof String) {
+            writeString((String) value, sb);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof Map) {
+            sb.append("{");
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    sb.append(",");
+                }
+                first = false;
+                writeString(String.valueOf(entry.getKey()), sb);
+                sb.append(":");
+                write(entry.getValue(), sb);
+            }
+            sb.append("}");
+        } else if (value instanceof Iterable) {
+            sb.append("[");
+            boolean first = true;
+            for (Object item : (Iterable<?>) value) {
+                if (!first) {
+                    sb.append(",");
+                }
+                first = false;
+                write(item, sb);
+            }
+            sb.append("]");
+        } else {
+            writeString(value.toString(), sb);
+        }
+    }
+
+    private static void writeString(String text, StringBuilder sb) {
+        sb.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    private final String text;
+    private int pos = 0;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    private Object readValue() throws Exception {
+        if (pos >= text.length()) {
+            fail("unexpected end");
+        }
+        char c = text.charAt(pos);
+        if (c == '{') {
+            return readObject();
+        } else if (c == '[') {
+            return readArray();
+        } else if (c == '"') {
+            return readString();
+        } else if (text.startsWith("true", pos)) {
+            pos += 4;
+            return Boolean.TRUE;
+        } else if (text.startsWith("false", pos)) {
+            pos += 5;
+            return Boolean.FALSE;
+        } else if (text.startsWith("null", pos)) {
+            pos += 4;
+            return null;
+        }
+        return readNumber();
+    }
+
+    private Map<String, Object> readObject() throws Exception {
+        Map<String, Object> out = new LinkedHashMap<>();
+        pos++;
+        skipSpace();
+        if (peek() == '}') {
+            pos++;
+            return out;
+        }
+        while (true) {
+            skipSpace();
+            if (peek() != '"') {
+                fail("expected a key");
+            }
+            String key = readString();
+            skipSpace();
+            expect(':');
+            skipSpace();
+            out.put(key, readValue());
+            skipSpace();
+            if (peek() == ',') {
+                pos++;
+                continue;
+            }
+            expect('}');
+            return out;
+        }
+    }
+
+    private List<Object> readArray() throws Exception {
+        List<Object> out = new ArrayList<>();
+        pos++;
+        skipSpace();
+        if (peek() == ']') {
+            pos++;
+            return out;
+        }
+        while (true) {
+            skipSpace();
+            out.add(readValue());
+            skipSpace();
+            if (peek() == ',') {
+                pos++;
+                continue;
+            }
+            expect(']');
+            return out;
+        }
+    }
+
+    private String readString() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        pos++;
+        while (true) {
+            if (pos >= text.length()) {
+                fail("unterminated string");
+            }
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= text.length()) {
+                fail("unterminated string");
+            }
+            char esc = text.charAt(pos++);
+            switch (esc) {
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'u':
+                    if (pos + 4 > text.length()) {
+                        fail("bad escape");
+                    }
+                    sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default:
+                    sb.append(esc);
+            }
+        }
+    }
+
+    private Number readNumber() throws Exception {
+        int start = pos;
+        boolean whole = true;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+            whole &= Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '-';
+            pos++;
+        }
+        String number = text.substring(start, pos);
+        try {
+            return whole ? (Number) Long.parseLong(number) : (Number) Double.parseDouble(number);
+        } catch (NumberFormatException err) {
+            fail("bad value");
+            return null;
+        }
+    }
+
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : '\0';
+    }
+
+    private void expect(char c) throws Exception {
+        if (peek() != c) {
+            fail("expected " + c);
+        }
+        pos++;
+    }
+
+    private void skipSpace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private void fail(String why) throws Exception {
+        throw new Exception("Error parsing JSON, " + why + " at " + pos);
+    }
+}
@@ -0,0 +1,289 @@
+package org.ucb.act.utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A registry of counters and histograms for the stages of an analysis, such
+ * as parsing, validation, matrix construction and solving, so that a batch
+ * run can report where its time went.
+ *
+ * A Timer records how long each pass through a stage takes, and emits a JFR
+ * event for it, so a flight recording shows every stage on its thread's
+ * timeline:
+ *
+ *     Metrics.Stage stage = PARSE.start();
+ *     try {
+ *         ...
+ *     } finally {
+ *         stage.end();
+ *     }
+ *
+ * A Counter adds up events, such as cache hits or pivots, and a Histogram
+ * records the spread of a size, such as the dimension of each matrix solved.
+ * All three are lock-free, and a class doing the measuring looks its own up
+ * once, into a static field.  summary() gives a table of everything
+ * recorded so far.
+ *
+ * @author J. Christopher Anderson
+ */
+public class Metrics {
+
+    private static final Metrics shared = new Metrics();
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * @return the registry that all of the analysis stages record into
+     */
+    public static Metrics getShared() {
+        return shared;
+    }
+
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, Timer::new);
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Zeroes everything recorded so far, keeping the names
+     */
+    public void reset() {
+        for (Timer timer : timers.values()) {
+            timer.latency.reset();
+        }
+        for (Counter counter : counters.values()) {
+            counter.adder.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return a table of the latency of each stage in milliseconds, then
+     * each counter, then the spread of each histogram
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-24s%10s%12s%12s%12s%12s%12s%n", "stage", "count", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (Timer timer : new TreeMap<>(timers).values()) {
+            Histogram h = timer.latency;
+            sb.append(String.format("%-24s%10d%12.3f%12.3f%12.3f%12.3f%12.3f%n", timer.name, h.getCount(),
+                    h.getMean() / 1e6, h.percentile(50) / 1e6, h.percentile(90) / 1e6, h.percentile(99) / 1e6, h.getMax() / 1e6));
+        }
+        sb.append(String.format("%n%-24s%10s%n", "counter", "total"));
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            sb.append(String.format("%-24s%10d%n", entry.getKey(), entry.getValue().get()));
+        }
+        sb.append(String.format("%n%-24s%10s%12s%12s%12s%12s%n", "histogram", "count", "mean", "p50", "p99", "max"));
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            Histogram h = entry.getValue();
+            sb.append(String.format("%-24s%10d%12.1f%12d%12d%12d%n", entry.getKey(), h.getCount(),
+                    h.getMean(), h.percentile(50), h.percentile(99), h.getMax()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Prints the summary to stderr when the JVM exits, for batch runs whose
+     * main does not print it itself
+     */
+    public void printOnExit() {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.print(summary()), "metrics-summary"));
+    }
+
+    /**
+     * The latency of one stage of the analysis
+     */
+    public static final class Timer {
+        private final String name;
+        private final Histogram latency = new Histogram();
+
+        private Timer(String name) {
+            this.name = name;
+        }
+
+        public Stage start() {
+            return new Stage(this);
+        }
+
+        public Histogram getLatency() {
+            return latency;
+        }
+    }
+
+    /**
+     * One pass through a stage, from start() to end()
+     */
+    public static final class Stage {
+        private final Timer timer;
+        private final StageEvent event = new StageEvent();
+        private final long start = System.nanoTime();
+
+        private Stage(Timer timer) {
+            this.timer = timer;
+            event.begin();
+        }
+
+        public void end() {
+            end(0);
+        }
+
+        /**
+         * @param items how many things the stage worked on, such as
+         * reactions or matrix rows, for the JFR event
+         */
+        public void end(long items) {
+            timer.latency.record(System.nanoTime() - start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = timer.name;
+                event.items = items;
+                event.commit();
+            }
+        }
+    }
+
+    public static final class Counter {
+        private final LongAdder adder = new LongAdder();
+
+        private Counter() {
+        }
+
+        public void increment() {
+            adder.increment();
+        }
+
+        public void add(long amount) {
+            adder.add(amount);
+        }
+
+        public long get() {
+            return adder.sum();
+        }
+    }
+
+    /**
+     * A log-linear histogram of non-negative values: each power of two is
+     * split into 8 buckets, so a percentile is within 12.5% of the true
+     * value.  Recording is a single atomic increment.
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        private Histogram() {
+        }
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the given percentile
+         * of the values recorded, or 0 if there are none
+         */
+        public long percentile(double pct) {
+            long[] snapshot = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(pct / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        private void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            long sub = bucket % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << (exp - SUB_BITS)) - 1;
+        }
+    }
+
+    @Name("org.ucb.pathwayanalysis.Stage")
+    @Label("Pathway Analysis Stage")
+    @Category("Pathway Analysis")
+    @Description("One pass through a stage of parsing, validating, balancing or solving")
+    static final class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Items")
+        long items;
+    }
+}
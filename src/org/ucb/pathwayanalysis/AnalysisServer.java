@@ -0,0 +1,350 @@
+package org.ucb.pathwayanalysis;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.ucb.act.utils.ChemAxonUtils;
+import org.ucb.act.utils.Json;
+import org.ucb.act.utils.Metrics;
+import org.ucb.pathwayanalysis.model.PathwayResult;
+
+/**
+ * A resident server that validates and balances pathways on request, so the
+ * JVM, the license, the molecular property and result caches and the
+ * JIT-compiled code all stay warm between requests.  It speaks JSON lines,
+ * either over stdin and stdout or over sockets on the loopback interface.
+ *
+ * Each request is an object with an "id", echoed in the reply, and an "op":
+ *
+ *     {"id": 1, "op": "analyze", "text": "@name:\tglycolysis..."}
+ *     {"id": 2, "op": "ping"}
+ *     {"id": 3, "op": "stats"}
+ *
+ * An analyze reply has a "results" array with the name, validity, failed
+ * reactions and net balance of each pathway in the text; a failed request
+ * has an "error" instead.  Replies are written as they are ready, so they
+ * may come back out of order.
+ *
+ * Analyze requests from all connections go into one queue.  A dispatcher
+ * takes them in batches, waiting briefly for more after the first, merges
+ * requests for the same text and hands the batch to a pool of workers.
+ *
+ * @author J. Christopher Anderson
+ */
+public class AnalysisServer {
+
+    /**
+     * The most requests handed to the workers at once
+     */
+    public static final int MAX_BATCH = 64;
+
+    //How long the dispatcher waits for a batch to fill after its first request
+    private static final long BATCH_WAIT_MICROS = 500;
+
+    private final ResultCache cache;
+    private final ExecutorService workers;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+    private volatile ServerSocket server;
+
+    public AnalysisServer(ResultCache cache) {
+        this(cache, Runtime.getRuntime().availableProcessors());
+    }
+
+    public AnalysisServer(ResultCache cache, int threads) {
+        this.cache = cache;
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "analysis-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = new Thread(this::dispatch, "analysis-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Serves one stream of requests until it ends, returning once every
+     * reply to it has been written
+     */
+    public void serve(InputStream in, OutputStream out) throws Exception {
+        Connection conn = new Connection(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            accept(conn, line);
+        }
+        conn.awaitReplies();
+    }
+
+    /**
+     * Accepts connections on a loopback port, serving each on its own thread,
+     * until the server is shut down
+     */
+    public void listen(int port) throws Exception {
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            this.server = server;
+            System.err.println("Listening on " + server.getLocalSocketAddress());
+            while (running) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketException err) {
+                    //shutdown() closes the socket to end a blocked accept()
+                    if (!running) {
+                        return;
+                    }
+                    throw err;
+                }
+                Thread thread = new Thread(() -> {
+                    try (Socket s = socket) {
+                        serve(s.getInputStream(), s.getOutputStream());
+                    } catch (Exception err) {
+                        System.err.println("Connection closed: " + err);
+                    }
+                }, "analysis-connection");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        ServerSocket listening = server;
+        if (listening != null) {
+            try {
+                listening.close();
+            } catch (IOException err) {
+                System.err.println("Unable to close " + listening.getLocalSocketAddress() + ": " + err);
+            }
+        }
+        dispatcher.interrupt();
+        workers.shutdown();
+    }
+
+    private void accept(Connection conn, String line) {
+        Object id = null;
+        try {
+            Object parsed = Json.parse(line);
+            if (!(parsed instanceof Map)) {
+                throw new Exception("Request is not an object");
+            }
+            Map<?, ?> request = (Map<?, ?>) parsed;
+            id = request.get("id");
+            Object op = request.get("op");
+
+            if ("analyze".equals(op)) {
+                Object text = request.get("text");
+                if (!(text instanceof String)) {
+                    throw new Exception("No text to analyze");
+                }
+                conn.expectReply();
+                queue.add(new Request(conn, id, (String) text));
+            } else if ("ping".equals(op)) {
+                Map<String, Object> reply = reply(id);
+                reply.put("ok", true);
+                conn.write(reply);
+            } else if ("stats".equals(op)) {
+                Map<String, Object> reply = reply(id);
+                reply.put("hits", cache.getHits());
+                reply.put("misses", cache.getMisses());
+                reply.put("size", cache.size());
+                reply.put("queued", queue.size());
+                conn.write(reply);
+            } else {
+                throw new Exception("Unknown op: " + op);
+            }
+        } catch (Exception err) {
+            Map<String, Object> reply = reply(id);
+            reply.put("error", err.getMessage() == null ? err.toString() : err.getMessage());
+            conn.write(reply);
+        }
+    }
+
+    /**
+     * Takes requests off the queue in batches and runs each distinct text
+     * in the batch once on the workers
+     */
+    private void dispatch() {
+        while (running) {
+            List<Request> batch = new ArrayList<>();
+            try {
+                Request first = queue.take();
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(BATCH_WAIT_MICROS);
+                while (batch.size() < MAX_BATCH) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException err) {
+                break;
+            }
+
+            Map<String, List<Request>> byText = new LinkedHashMap<>();
+            for (Request request : batch) {
+                byText.computeIfAbsent(request.text, text -> new ArrayList<>()).add(request);
+            }
+            for (Map.Entry<String, List<Request>> entry : byText.entrySet()) {
+                workers.execute(() -> analyze(entry.getKey(), entry.getValue()));
+            }
+        }
+    }
+
+    private void analyze(String text, List<Request> requests) {
+        List<Object> results = null;
+        String error = null;
+        try {
+            results = new ArrayList<>();
+            for (PathwayResult result : cache.run(text.getBytes(StandardCharsets.UTF_8))) {
+                results.add(toJson(result));
+            }
+        } catch (Exception err) {
+            error = err.getMessage() == null ? err.toString() : err.getMessage();
+        } catch (Error err) {
+            error = err.toString();
+            throw err;
+        } finally {
+            //Every request is answered and counted off, even after an Error
+            for (Request request : requests) {
+                try {
+                    Map<String, Object> reply = reply(request.id);
+                    if (error == null) {
+                        reply.put("results", results);
+                    } else {
+                        reply.put("error", error);
+                    }
+                    request.conn.write(reply);
+                } finally {
+                    request.conn.replied();
+                }
+            }
+        }
+    }
+
+    private static Map<String, Object> toJson(PathwayResult result) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("name", result.getName());
+        out.put("valid", result.isValid());
+        out.put("failures", result.getFailures());
+        out.put("balance", result.getBalance());
+        return out;
+    }
+
+    private static Map<String, Object> reply(Object id) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("id", id);
+        return out;
+    }
+
+    private static final class Request {
+        private final Connection conn;
+        private final Object id;
+        private final String text;
+
+        Request(Connection conn, Object id, String text) {
+            this.conn = conn;
+            this.id = id;
+            this.text = text;
+        }
+    }
+
+    /**
+     * The reply side of one stream, which tracks the replies still owed to it
+     */
+    private static final class Connection {
+        private final Writer writer;
+        private int pending = 0;
+
+        Connection(Writer writer) {
+            this.writer = writer;
+        }
+
+        synchronized void write(Map<String, Object> reply) {
+            try {
+                writer.write(Json.write(reply));
+                writer.write("\n");
+                writer.flush();
+            } catch (Exception err) {
+                System.err.println("Unable to write reply: " + err);
+            }
+        }
+
+        synchronized void expectReply() {
+            pending++;
+        }
+
+        synchronized void replied() {
+            pending--;
+            notifyAll();
+        }
+
+        synchronized void awaitReplies() throws InterruptedException {
+            while (pending > 0) {
+                wait();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = -1;
+        String cachePath = "result_cache.txt";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--port")) {
+                port = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--cache")) {
+                cachePath = args[i + 1];
+            }
+        }
+
+        //Stdout carries the replies, so send anything else printed to stderr
+        PrintStream replies = System.out;
+        System.setOut(System.err);
+
+        //Report where the time went when the server stops
+        Metrics.getShared().printOnExit();
+
+        //The license is only needed for InChIs the formula parser cannot read
+        if (new File("chemaxon_license/license_chemaxon.cxl").exists()) {
+            ChemAxonUtils.license();
+        }
+
+        try (ResultCache cache = new ResultCache(cachePath)) {
+            AnalysisServer server = new AnalysisServer(cache);
+            if (port >= 0) {
+                server.listen(port);
+            } else {
+                server.serve(System.in, replies);
+            }
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,648 @@
+package org.ucb.pathwayanalysis;
+
+import java.util.Arrays;
+import org.ucb.pathwayanalysis.model.FluxSolution;
+
+/**
+ * Maximizes c.x subject to A*x = b and lower <= x <= upper, by the revised
+ * simplex method for bounded variables.  Variables sitting at a bound stay
+ * out of the basis, so bounds cost nothing extra: there are no slack rows,
+ * and a variable can flip from one bound to the other without a pivot.
+ *
+ * A is held sparse and the basis inverse dense, m x m, which suits
+ * stoichiometric matrices with a few hundred rows.  The inverse is updated
+ * at each pivot and recomputed from scratch every REFACTOR_INTERVAL pivots,
+ * or every m pivots if that is more, to keep rounding errors down without
+ * the O(m^3) refactorization dominating.
+ *
+ * The first solve starts from an all-artificial basis (phase 1).  Later
+ * solves start from the last basis: after a change of objective the primal
+ * simplex carries on from it, and after a change of bounds, which leaves it
+ * dual feasible, the dual simplex does.  Either way a small change usually
+ * needs only a few pivots.  An instance holds this state, so it is not
+ * thread-safe.
+ *
+ * @author J. Christopher Anderson
+ */
+public class BoundedSimplex {
+    public static final double FEASIBILITY_TOL = 1e-9;
+    public static final double OPTIMALITY_TOL = 1e-9;
+    private static final double PIVOT_TOL = 1e-9;
+    private static final int REFACTOR_INTERVAL = 100;
+
+    //Switch to Bland's rule after this many pivots without progress, to stop cycling
+    private static final int BLAND_AFTER = 50;
+
+    //The states of a variable, nonbasic ones sit at a bound or, if free, at zero
+    private static final int BASIC = 0;
+    private static final int AT_LOWER = 1;
+    private static final int AT_UPPER = 2;
+    private static final int AT_ZERO = 3;
+
+    private final int m;
+    private final int n;
+    private final int[] ap;
+    private final int[] ai;
+    private final double[] ax;
+    private final double[] b;
+
+    //Indexed by variable, the structural ones followed by one artificial per row
+    private final double[] cost;
+    private final double[] lower;
+    private final double[] upper;
+    private final double[] x;
+    private final int[] state;
+
+    //Artificial n+i has the single entry artSign[i] in row i
+    private final double[] artSign;
+
+    private final int[] basis;
+    private double[][] binv;
+    private boolean started = false;
+    private int sinceRefactor = 0;
+    private int iterations = 0;
+
+    /**
+     * @param a the m x n constraint matrix
+     * @param b the m right-hand sides
+     */
+    public BoundedSimplex(SparseMatrix a, double[] b) throws Exception {
+        if (b.length != a.getRows()) {
+            System.err.println("BoundedSimplex needs one right-hand side per row, got " + b.length);
+            throw new Exception();
+        }
+        this.m = a.getRows();
+        this.n = a.getCols();
+        this.ap = a.getColStarts();
+        this.ai = a.getRowIndices();
+        this.ax = a.getValues();
+        this.b = b.clone();
+        this.cost = new double[n + m];
+        this.lower = new double[n + m];
+        this.upper = new double[n + m];
+        Arrays.fill(upper, Double.POSITIVE_INFINITY);
+        this.x = new double[n + m];
+        this.state = new int[n + m];
+        this.artSign = new double[m];
+        this.basis = new int[m];
+    }
+
+    /**
+     * Copies another program along with its current basis, so the copy can
+     * be re-solved independently without starting over
+     */
+    private BoundedSimplex(BoundedSimplex other) {
+        this.m = other.m;
+        this.n = other.n;
+        this.ap = other.ap;
+        this.ai = other.ai;
+        this.ax = other.ax;
+        this.b = other.b;
+        this.cost = other.cost.clone();
+        this.lower = other.lower.clone();
+        this.upper = other.upper.clone();
+        this.x = other.x.clone();
+        this.state = other.state.clone();
+        this.artSign = other.artSign.clone();
+        this.basis = other.basis.clone();
+        if (other.binv != null) {
+            this.binv = new double[m][];
+            for (int i = 0; i < m; i++) {
+                this.binv[i] = other.binv[i].clone();
+            }
+        }
+        this.started = other.started;
+        this.sinceRefactor = other.sinceRefactor;
+    }
+
+    /**
+     * @return an independent copy of this program and its current basis
+     */
+    public BoundedSimplex copy() {
+        return new BoundedSimplex(this);
+    }
+
+    public int getRows() {
+        return m;
+    }
+
+    public int getCols() {
+        return n;
+    }
+
+    /**
+     * Sets the objective coefficients of the structural variables
+     */
+    public void setObjective(double[] c) throws Exception {
+        if (c.length != n) {
+            System.err.println("BoundedSimplex needs one objective coefficient per column, got " + c.length);
+            throw new Exception();
+        }
+        System.arraycopy(c, 0, cost, 0, n);
+    }
+
+    /**
+     * Sets the bounds of a structural variable, either of which may be
+     * infinite.  Variables start out with bounds of zero and infinity.
+     */
+    public void setBounds(int j, double lo, double hi) throws Exception {
+        if (j < 0 || j >= n || lo > hi || Double.isNaN(lo) || Double.isNaN(hi)) {
+            System.err.println("Invalid bounds [" + lo + ", " + hi + "] for column " + j);
+            throw new Exception();
+        }
+        lower[j] = lo;
+        upper[j] = hi;
+
+        //A nonbasic variable follows its bound, the basic ones are recomputed on the next solve
+        if (state[j] != BASIC) {
+            place(j, state[j]);
+        }
+    }
+
+    public double getLower(int j) {
+        return lower[j];
+    }
+
+    public double getUpper(int j) {
+        return upper[j];
+    }
+
+    /**
+     * Solves the program, starting from the last basis if there is one
+     */
+    public FluxSolution.Status solve() throws Exception {
+        iterations = 0;
+        if (!started) {
+            return coldStart();
+        }
+        computeBasics();
+        if (isPrimalFeasible()) {
+            return primal(cost);
+        }
+        if (isDualFeasible()) {
+            FluxSolution.Status status = dual();
+            if (status != FluxSolution.Status.OPTIMAL) {
+                return status;
+            }
+            return primal(cost);
+        }
+        return coldStart();
+    }
+
+    /**
+     * @return the value of a structural variable in the last solution
+     */
+    public double getValue(int j) {
+        return x[j];
+    }
+
+    /**
+     * @return the values of the structural variables in the last solution
+     */
+    public double[] getValues() {
+        return Arrays.copyOf(x, n);
+    }
+
+    public double getObjectiveValue() {
+        double total = 0;
+        for (int j = 0; j < n; j++) {
+            total += cost[j] * x[j];
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of pivots and bound flips taken by the last solve
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Starts from scratch: every structural variable at a bound and an
+     * artificial basis absorbing the residual, which phase 1 drives to zero.
+     */
+    private FluxSolution.Status coldStart() throws Exception {
+        started = false;
+        for (int j = 0; j < n; j++) {
+            place(j, AT_LOWER);
+        }
+
+        double[] r = b.clone();
+        for (int j = 0; j < n; j++) {
+            double xj = x[j];
+            if (xj == 0) {
+                continue;
+            }
+            for (int p = ap[j]; p < ap[j + 1]; p++) {
+                r[ai[p]] -= ax[p] * xj;
+            }
+        }
+        binv = new double[m][m];
+        for (int i = 0; i < m; i++) {
+            int art = n + i;
+            artSign[i] = r[i] >= 0 ? 1 : -1;
+            lower[art] = 0;
+            upper[art] = Double.POSITIVE_INFINITY;
+            x[art] = Math.abs(r[i]);
+            state[art] = BASIC;
+            basis[i] = art;
+            binv[i][i] = artSign[i];
+        }
+        sinceRefactor = 0;
+
+        //Phase 1, maximize minus the sum of the artificials
+        double[] phase1 = new double[n + m];
+        double scale = 1;
+        for (int i = 0; i < m; i++) {
+            phase1[n + i] = -1;
+            scale = Math.max(scale, Math.abs(b[i]));
+        }
+        primal(phase1);
+        double infeasibility = 0;
+        for (int i = 0; i < m; i++) {
+            infeasibility += x[n + i];
+        }
+        if (infeasibility > FEASIBILITY_TOL * scale) {
+            return FluxSolution.Status.INFEASIBLE;
+        }
+
+        //Pin the artificials at zero for good, any left in the basis are degenerate
+        for (int i = 0; i < m; i++) {
+            int art = n + i;
+            upper[art] = 0;
+            if (state[art] != BASIC) {
+                place(art, AT_LOWER);
+            }
+        }
+        started = true;
+        return primal(cost);
+    }
+
+    private FluxSolution.Status primal(double[] c) throws Exception {
+        int stalled = 0;
+        while (true) {
+            checkIterations();
+            double[] y = duals(c);
+
+            //Price out the nonbasic variables, taking the largest reduced cost
+            boolean bland = stalled > BLAND_AFTER;
+            int q = -1;
+            int dir = 0;
+            double best = OPTIMALITY_TOL;
+            for (int j = 0; j < n + m; j++) {
+                if (state[j] == BASIC) {
+                    continue;
+                }
+                double d = c[j] - dot(y, j);
+                int jdir;
+                if (d > OPTIMALITY_TOL && canIncrease(j)) {
+                    jdir = 1;
+                } else if (d < -OPTIMALITY_TOL && canDecrease(j)) {
+                    jdir = -1;
+                } else {
+                    continue;
+                }
+                if (bland) {
+                    q = j;
+                    dir = jdir;
+                    break;
+                }
+                if (Math.abs(d) > best) {
+                    best = Math.abs(d);
+                    q = j;
+                    dir = jdir;
+                }
+            }
+            if (q < 0) {
+                return FluxSolution.Status.OPTIMAL;
+            }
+
+            //Ratio test, the entering variable can also just run to its other bound
+            double[] alpha = column(q);
+            double step = upper[q] - lower[q];
+            int leave = -1;
+            boolean leaveToUpper = false;
+            for (int i = 0; i < m; i++) {
+                if (Math.abs(alpha[i]) < PIVOT_TOL) {
+                    continue;
+                }
+                int j = basis[i];
+                double delta = -dir * alpha[i];
+                double ti;
+                boolean toUpper;
+                if (delta < 0) {
+                    if (lower[j] == Double.NEGATIVE_INFINITY) {
+                        continue;
+                    }
+                    ti = Math.max(0, (x[j] - lower[j]) / -delta);
+                    toUpper = false;
+                } else {
+                    if (upper[j] == Double.POSITIVE_INFINITY) {
+                        continue;
+                    }
+                    ti = Math.max(0, (upper[j] - x[j]) / delta);
+                    toUpper = true;
+                }
+
+                //On a tie take the larger pivot, or under Bland's rule the lower index
+                boolean better;
+                if (ti < step - 1e-12) {
+                    better = true;
+                } else if (ti > step + 1e-12 || leave < 0) {
+                    better = false;
+                } else if (bland) {
+                    better = j < basis[leave];
+                } else {
+                    better = Math.abs(alpha[i]) > Math.abs(alpha[leave]);
+                }
+                if (better) {
+                    step = ti;
+                    leave = i;
+                    leaveToUpper = toUpper;
+                }
+            }
+            if (step == Double.POSITIVE_INFINITY) {
+                return FluxSolution.Status.UNBOUNDED;
+            }
+            stalled = step <= FEASIBILITY_TOL ? stalled + 1 : 0;
+
+            //Move along the edge
+            x[q] += dir * step;
+            for (int i = 0; i < m; i++) {
+                x[basis[i]] -= dir * step * alpha[i];
+            }
+            iterations++;
+            if (leave < 0) {
+                place(q, dir > 0 ? AT_UPPER : AT_LOWER);
+                continue;
+            }
+            int out = basis[leave];
+            place(out, leaveToUpper ? AT_UPPER : AT_LOWER);
+            pivot(leave, q, alpha);
+        }
+    }
+
+    /**
+     * The dual simplex method, run from a basis whose reduced costs all have
+     * the right sign but whose basic variables may be out of bounds
+     */
+    private FluxSolution.Status dual() throws Exception {
+        while (true) {
+            checkIterations();
+
+            //The basic variable furthest outside its bounds leaves
+            int p = -1;
+            boolean below = false;
+            double worst = FEASIBILITY_TOL;
+            for (int i = 0; i < m; i++) {
+                int j = basis[i];
+                if (lower[j] - x[j] > worst) {
+                    worst = lower[j] - x[j];
+                    p = i;
+                    below = true;
+                } else if (x[j] - upper[j] > worst) {
+                    worst = x[j] - upper[j];
+                    p = i;
+                    below = false;
+                }
+            }
+            if (p < 0) {
+                return FluxSolution.Status.OPTIMAL;
+            }
+
+            //Pick the entering variable whose reduced cost reaches zero first
+            double[] y = duals(cost);
+            double[] rowP = binv[p];
+            int q = -1;
+            double bestRatio = Double.POSITIVE_INFINITY;
+            double bestAlpha = 0;
+            for (int j = 0; j < n + m; j++) {
+                if (state[j] == BASIC) {
+                    continue;
+                }
+                double a = dot(rowP, j);
+                if (Math.abs(a) < PIVOT_TOL) {
+                    continue;
+                }
+                //The leaving variable moves by -a per unit of j
+                boolean increase = below == (a < 0);
+                if (increase ? !canIncrease(j) : !canDecrease(j)) {
+                    continue;
+                }
+                double ratio = Math.abs(cost[j] - dot(y, j)) / Math.abs(a);
+                if (ratio < bestRatio - 1e-12 || (ratio <= bestRatio + 1e-12 && Math.abs(a) > Math.abs(bestAlpha))) {
+                    bestRatio = ratio;
+                    bestAlpha = a;
+                    q = j;
+                }
+            }
+            if (q < 0) {
+                return FluxSolution.Status.INFEASIBLE;
+            }
+
+            //Move the leaving variable onto the bound it violated
+            double[] alpha = column(q);
+            int out = basis[p];
+            double target = below ? lower[out] : upper[out];
+            double step = (x[out] - target) / alpha[p];
+            x[q] += step;
+            for (int i = 0; i < m; i++) {
+                x[basis[i]] -= step * alpha[i];
+            }
+            iterations++;
+            place(out, below ? AT_LOWER : AT_UPPER);
+            pivot(p, q, alpha);
+        }
+    }
+
+    private void checkIterations() throws Exception {
+        if (iterations > 50 * (n + m) + 1000) {
+            System.err.println("Simplex iteration limit reached after " + iterations + " iterations");
+            throw new Exception();
+        }
+    }
+
+    /**
+     * Makes a variable nonbasic at the preferred bound, or the other one if
+     * that is infinite, or at zero if both are
+     */
+    private void place(int j, int preferred) {
+        boolean loFinite = lower[j] != Double.NEGATIVE_INFINITY;
+        boolean hiFinite = upper[j] != Double.POSITIVE_INFINITY;
+        if (preferred == AT_UPPER && hiFinite || !loFinite && hiFinite) {
+            state[j] = AT_UPPER;
+            x[j] = upper[j];
+        } else if (loFinite) {
+            state[j] = AT_LOWER;
+            x[j] = lower[j];
+        } else {
+            state[j] = AT_ZERO;
+            x[j] = 0;
+        }
+    }
+
+    private boolean canIncrease(int j) {
+        return state[j] == AT_ZERO || (state[j] == AT_LOWER && upper[j] > lower[j]);
+    }
+
+    private boolean canDecrease(int j) {
+        return state[j] == AT_ZERO || (state[j] == AT_UPPER && upper[j] > lower[j]);
+    }
+
+    /**
+     * @return the simplex multipliers, c_B times the basis inverse
+     */
+    private double[] duals(double[] c) {
+        double[] y = new double[m];
+        for (int i = 0; i < m; i++) {
+            double cb = c[basis[i]];
+            if (cb == 0) {
+                continue;
+            }
+            double[] row = binv[i];
+            for (int k = 0; k < m; k++) {
+                y[k] += cb * row[k];
+            }
+        }
+        return y;
+    }
+
+    /**
+     * @return the dot product of a row vector with column j of [A I]
+     */
+    private double dot(double[] y, int j) {
+        if (j >= n) {
+            return y[j - n] * artSign[j - n];
+        }
+        double total = 0;
+        for (int p = ap[j]; p < ap[j + 1]; p++) {
+            total += y[ai[p]] * ax[p];
+        }
+        return total;
+    }
+
+    /**
+     * @return column j of [A I] in terms of the basis, binv times the column
+     */
+    private double[] column(int j) {
+        double[] alpha = new double[m];
+        for (int i = 0; i < m; i++) {
+            alpha[i] = dot(binv[i], j);
+        }
+        return alpha;
+    }
+
+    private boolean isPrimalFeasible() {
+        for (int i = 0; i < m; i++) {
+            int j = basis[i];
+            if (x[j] < lower[j] - FEASIBILITY_TOL || x[j] > upper[j] + FEASIBILITY_TOL) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isDualFeasible() {
+        double[] y = duals(cost);
+        for (int j = 0; j < n + m; j++) {
+            if (state[j] == BASIC) {
+                continue;
+            }
+            double d = cost[j] - dot(y, j);
+            if ((d > OPTIMALITY_TOL && canIncrease(j)) || (d < -OPTIMALITY_TOL && canDecrease(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Brings variable q into the basis at position p, updating the inverse
+     * with the eliminations that turn alpha into the p-th unit vector
+     */
+    private void pivot(int p, int q, double[] alpha) throws Exception {
+        basis[p] = q;
+        state[q] = BASIC;
+
+        double[] rowP = binv[p];
+        double piv = alpha[p];
+        for (int k = 0; k < m; k++) {
+            rowP[k] /= piv;
+        }
+        for (int i = 0; i < m; i++) {
+            double f = alpha[i];
+            if (i == p || f == 0) {
+                continue;
+            }
+            double[] row = binv[i];
+            for (int k = 0; k < m; k++) {
+                row[k] -= f * rowP[k];
+            }
+        }
+
+        sinceRefactor++;
+        if (sinceRefactor >= Math.max(REFACTOR_INTERVAL, m)) {
+            refactor();
+        }
+    }
+
+    /**
+     * Recomputes the basis inverse and the basic variables from scratch
+     */
+    private void refactor() throws Exception {
+        double[][] mat = new double[m][m];
+        for (int i = 0; i < m; i++) {
+            int j = basis[i];
+            if (j >= n) {
+                mat[j - n][i] = artSign[j - n];
+                continue;
+            }
+            for (int p = ap[j]; p < ap[j + 1]; p++) {
+                mat[ai[p]][i] = ax[p];
+            }
+        }
+
+        //Solving against each unit vector gives the columns of the inverse
+        double[][] identity = new double[m][m];
+        for (int k = 0; k < m; k++) {
+            identity[k][k] = 1;
+        }
+        double[][] cols = LUDecomposition.factor(mat).solve(identity);
+        binv = new double[m][m];
+        for (int i = 0; i < m; i++) {
+            for (int k = 0; k < m; k++) {
+                binv[i][k] = cols[k][i];
+            }
+        }
+        sinceRefactor = 0;
+        computeBasics();
+    }
+
+    /**
+     * Sets the basic variables from the nonbasic ones, x_B = binv (b - N x_N)
+     */
+    private void computeBasics() {
+        double[] r = b.clone();
+        for (int j = 0; j < n + m; j++) {
+            if (state[j] == BASIC || x[j] == 0) {
+                continue;
+            }
+            if (j >= n) {
+                r[j - n] -= artSign[j - n] * x[j];
+                continue;
+            }
+            for (int p = ap[j]; p < ap[j + 1]; p++) {
+                r[ai[p]] -= ax[p] * x[j];
+            }
+        }
+        for (int i = 0; i < m; i++) {
+            double total = 0;
+            double[] row = binv[i];
+            for (int k = 0; k < m; k++) {
+                total += row[k] * r[k];
+            }
+            x[basis[i]] = total;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.ucb.pathwayanalysis;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.ucb.act.utils.FileUtils;
+import org.ucb.pathwayanalysis.model.CofactorMatrix;
+import org.ucb.pathwayanalysis.model.CompiledPathway;
+import org.ucb.pathwayanalysis.model.Pathway;
+
+/**
+ * A Function that balances a whole library of pathways in parallel and
+ * tabulates the net usage of each tracked cofactor (ATP, NAD(P)H, CoA,
+ * CO2...) in a dense pathway x cofactor matrix, so that the cofactor demand
+ * of many candidate routes can be compared at once.
+ *
+ * @author J. Christopher Anderson
+ */
+public class CofactorLedger {
+
+    private final CofactorProfile profile;
+    private final PathwayBalancer balancer;
+
+    public CofactorLedger() {
+        this(CofactorProfile.getDefault());
+    }
+
+    public CofactorLedger(CofactorProfile profile) {
+        this(profile, PathwayBalancer.Method.EXACT);
+    }
+
+    public CofactorLedger(CofactorProfile profile, PathwayBalancer.Method method) {
+        this.profile = profile;
+        this.balancer = new PathwayBalancer(profile, method);
+    }
+
+    /**
+     * Balances every pathway, in parallel.  A pathway that cannot be
+     * balanced gets the reason in its row rather than stopping the batch.
+     */
+    public CofactorMatrix run(List<Pathway> paths) {
+        List<String> tracked = profile.getTracked();
+        int cols = tracked.size();
+        int[] values = new int[paths.size() * cols];
+        String[] errors = new String[paths.size()];
+
+        IntStream.range(0, paths.size()).parallel().forEach(i -> {
+            try {
+                CompiledPathway compiled = CompiledPathway.compile(paths.get(i), profile.getCofactors());
+                int[] net = balancer.run(compiled);
+                for (int chem = 0; chem < net.length; chem++) {
+                    int col = tracked.indexOf(compiled.getChem(chem).getName());
+                    if (col >= 0) {
+                        values[i * cols + col] += net[chem];
+                    }
+                }
+            } catch (Exception err) {
+                errors[i] = err.getMessage() == null ? err.toString() : err.getMessage();
+            }
+        });
+
+        List<String> names = new ArrayList<>();
+        for (Pathway path : paths) {
+            names.add(path.getName());
+        }
+        return new CofactorMatrix(names, tracked, values, errors);
+    }
+
+    /**
+     * Parses every .txt file under a directory, in parallel, and balances all
+     * the pathways found.  Files that do not parse as pathways are skipped.
+     */
+    public CofactorMatrix run(String dir) throws Exception {
+        List<Path> files;
+        try (Stream<Path> walk = FileUtils.walkFiles(dir, "txt")) {
+            files = walk.sorted().collect(Collectors.toList());
+        }
+
+        List<List<Pathway>> parsed = files.parallelStream().map(file -> {
+            try {
+                return new PathwayParser().runFile(file.toString());
+            } catch (Exception err) {
+                System.err.println("Skipping " + file + ", it is not a pathway file");
+                return new ArrayList<Pathway>();
+            }
+        }).collect(Collectors.toList());
+
+        List<Pathway> paths = new ArrayList<>();
+        for (List<Pathway> some : parsed) {
+            paths.addAll(some);
+        }
+        return run(paths);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String dir = args.length > 0 ? args[0] : "data";
+        CofactorProfile profile = CofactorProfile.load(dir + "/cofactors.txt");
+        CofactorLedger ledger = new CofactorLedger(profile);
+        CofactorMatrix matrix = ledger.run(dir);
+        System.out.println(matrix);
+    }
+}
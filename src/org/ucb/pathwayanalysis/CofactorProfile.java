@@ -0,0 +1,95 @@
+package org.ucb.pathwayanalysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.ucb.act.utils.FileUtils;
+
+/**
+ * The set of chemicals, by name, that are treated as cofactors: left out of
+ * the stoichiometric matrix when balancing and reported in the net balance.
+ * A subset of them is tracked, making up the columns of the CofactorLedger.
+ *
+ * A profile can be loaded from a text file with one cofactor per line,
+ * optionally followed by a tab and "yes" to track it.  Lines starting with
+ * # are comments.  See data/cofactors.txt.
+ *
+ * @author J. Christopher Anderson
+ */
+public class CofactorProfile {
+    private final Set<String> cofactors;
+    private final List<String> tracked;
+
+    public CofactorProfile(Set<String> cofactors, List<String> tracked) {
+        this.cofactors = Collections.unmodifiableSet(new LinkedHashSet<>(cofactors));
+        this.tracked = Collections.unmodifiableList(new ArrayList<>(tracked));
+    }
+
+    /**
+     * @return the universal list of standard-named cofactors
+     */
+    public static CofactorProfile getDefault() {
+        Set<String> cofactors = new LinkedHashSet<>();
+        cofactors.add("ATP");
+        cofactors.add("ADP");
+        cofactors.add("H+");
+        cofactors.add("H2O");
+        cofactors.add("NAD+");
+        cofactors.add("NADH");
+        cofactors.add("NADP+");
+        cofactors.add("NADPH");
+        cofactors.add("Pi");
+        cofactors.add("FAD");
+        cofactors.add("FADH2");
+        cofactors.add("CO2");
+        cofactors.add("CoA");
+
+        List<String> tracked = new ArrayList<>();
+        tracked.add("ATP");
+        tracked.add("NADH");
+        tracked.add("NADPH");
+        tracked.add("CO2");
+        tracked.add("CoA");
+        return new CofactorProfile(cofactors, tracked);
+    }
+
+    public static CofactorProfile load(String path) throws Exception {
+        String data = FileUtils.readFile(path);
+        Set<String> cofactors = new LinkedHashSet<>();
+        List<String> tracked = new ArrayList<>();
+        for (String line : data.split("\\r|\\r?\\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] tabs = line.split("\t");
+            if (tabs.length > 2) {
+                System.err.println("Error parsing cofactor on:\n" + line);
+                throw new Exception();
+            }
+            String name = tabs[0].trim();
+            cofactors.add(name);
+            if (tabs.length == 2 && tabs[1].trim().equalsIgnoreCase("yes") && !tracked.contains(name)) {
+                tracked.add(name);
+            }
+        }
+        return new CofactorProfile(cofactors, tracked);
+    }
+
+    public Set<String> getCofactors() {
+        return cofactors;
+    }
+
+    /**
+     * @return the cofactors reported by the CofactorLedger, in column order
+     */
+    public List<String> getTracked() {
+        return tracked;
+    }
+
+    public boolean isCofactor(String name) {
+        return cofactors.contains(name);
+    }
+}
@@ -0,0 +1,496 @@
+package org.ucb.pathwayanalysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.ucb.act.utils.FileUtils;
+import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.CompiledPathway;
+import org.ucb.pathwayanalysis.model.FluxMode;
+import org.ucb.pathwayanalysis.model.Pathway;
+
+/**
+ * A Function that enumerates the elementary flux modes of a Pathway: every
+ * minimal set of reactions that can run at steady state, and so every
+ * distinct route from the inputs to the outputs.  It works on the same
+ * StoichiometricMatrix as the PathwayBalancer, with a drain added for each
+ * output.  Reactions are irreversible, as written.
+ *
+ * Modes are found by the double-description method.  Starting from one
+ * mode per reaction, the intermediates are balanced one at a time: modes
+ * that leave an intermediate balanced are kept, and each pair of modes
+ * that make and use it is combined to cancel it out, provided the pair is
+ * adjacent, meaning no third mode runs on a subset of their reactions.
+ * Supports are bitsets, indexed in a bit pattern tree so that test only
+ * visits the modes that could be subsets, and most pairs never reach it: a
+ * mode can use at most one more reaction than the rank of the rows
+ * balanced so far, which a popcount checks.  The pairs are combined in
+ * parallel on the common fork-join pool.
+ *
+ * The modes of the last step are handed to a consumer as they are found
+ * rather than collected, which for large networks is most of them.  The
+ * consumer is called from several threads, but never concurrently, and in
+ * no particular order.
+ *
+ * @author J. Christopher Anderson
+ */
+public class ElementaryModes {
+
+    //The most pairs one fork-join task will combine before splitting
+    private static final int SPLIT_PAIRS = 4096;
+
+    //The most modes in a leaf of the bit pattern tree
+    private static final int LEAF_SIZE = 16;
+
+    private final Set<String> cofactors;
+
+    public ElementaryModes() {
+        this(CofactorProfile.getDefault());
+    }
+
+    public ElementaryModes(CofactorProfile profile) {
+        this.cofactors = profile.getCofactors();
+    }
+
+    /**
+     * @return every elementary mode of the pathway
+     */
+    public List<FluxMode> run(Pathway path) throws Exception {
+        List<FluxMode> out = new ArrayList<>();
+        run(CompiledPathway.compile(path, cofactors), out::add);
+        return out;
+    }
+
+    /**
+     * Streams the elementary modes of a pathway to a consumer
+     *
+     * @return the number of modes
+     */
+    public long run(CompiledPathway path, Consumer<FluxMode> consumer) throws Exception {
+        StoichiometricMatrix matrix = new StoichiometricMatrix(path);
+        int rxnCount = matrix.getRxnCount();
+        int rows = matrix.getChemCount();
+
+        //Columns are the reactions, then a drain on each output
+        List<Integer> drainRows = new ArrayList<>();
+        for (int chem = 0; chem < path.getChemCount(); chem++) {
+            if (path.isOutput(chem) && matrix.getRow(chem) >= 0) {
+                drainRows.add(matrix.getRow(chem));
+            }
+        }
+        int cols = rxnCount + drainRows.size();
+
+        //Turn the matrix around so each row's entries can be walked
+        SparseMatrix mat = matrix.getMatrix();
+        int[] ap = mat.getColStarts();
+        int[] ai = mat.getRowIndices();
+        double[] ax = mat.getValues();
+        int[] rowSizes = new int[rows];
+        for (int p = 0; p < ap[rxnCount]; p++) {
+            rowSizes[ai[p]]++;
+        }
+        for (int row : drainRows) {
+            rowSizes[row]++;
+        }
+        int[][] rowCols = new int[rows][];
+        long[][] rowCoeffs = new long[rows][];
+        for (int i = 0; i < rows; i++) {
+            rowCols[i] = new int[rowSizes[i]];
+            rowCoeffs[i] = new long[rowSizes[i]];
+            rowSizes[i] = 0;
+        }
+        for (int j = 0; j < rxnCount; j++) {
+            for (int p = ap[j]; p < ap[j + 1]; p++) {
+                int i = ai[p];
+                rowCols[i][rowSizes[i]] = j;
+                rowCoeffs[i][rowSizes[i]] = (long) ax[p];
+                rowSizes[i]++;
+            }
+        }
+        for (int d = 0; d < drainRows.size(); d++) {
+            int i = drainRows.get(d);
+            rowCols[i][rowSizes[i]] = rxnCount + d;
+            rowCoeffs[i][rowSizes[i]] = -1;
+            rowSizes[i]++;
+        }
+
+        //Start with one mode per column
+        int words = (cols + 63) / 64;
+        List<Mode> modes = new ArrayList<>();
+        for (int j = 0; j < cols; j++) {
+            long[] values = new long[cols];
+            values[j] = 1;
+            long[] support = new long[words];
+            support[j >> 6] |= 1L << j;
+            modes.add(new Mode(values, support));
+        }
+
+        Emitter emitter = new Emitter(path, rxnCount, consumer);
+        if (rows == 0) {
+            for (Mode mode : modes) {
+                emitter.accept(mode);
+            }
+            return emitter.count.get();
+        }
+
+        boolean[] done = new boolean[rows];
+        List<double[]> echelon = new ArrayList<>();
+        for (int step = 0; step < rows; step++) {
+            //Balance next the intermediate that makes the fewest new pairs
+            int row = -1;
+            long fewest = Long.MAX_VALUE;
+            for (int i = 0; i < rows; i++) {
+                if (done[i]) {
+                    continue;
+                }
+                long pos = 0;
+                long neg = 0;
+                for (Mode mode : modes) {
+                    long val = dot(rowCols[i], rowCoeffs[i], mode.values);
+                    if (val > 0) {
+                        pos++;
+                    } else if (val < 0) {
+                        neg++;
+                    }
+                }
+                if (pos * neg < fewest) {
+                    fewest = pos * neg;
+                    row = i;
+                }
+            }
+            done[row] = true;
+            int maxSupport = addToEchelon(echelon, rowCols[row], rowCoeffs[row], cols) + 1;
+
+            //Split the modes by whether they make, use, or leave it balanced
+            List<Mode> zero = new ArrayList<>();
+            List<Mode> pos = new ArrayList<>();
+            List<Long> posVals = new ArrayList<>();
+            List<Mode> neg = new ArrayList<>();
+            List<Long> negVals = new ArrayList<>();
+            for (Mode mode : modes) {
+                long val = dot(rowCols[row], rowCoeffs[row], mode.values);
+                if (val > 0) {
+                    pos.add(mode);
+                    posVals.add(val);
+                } else if (val < 0) {
+                    neg.add(mode);
+                    negVals.add(val);
+                } else {
+                    zero.add(mode);
+                }
+            }
+
+            boolean last = step == rows - 1;
+            List<Mode> next = last ? new ArrayList<>() : zero;
+            if (last) {
+                for (Mode mode : zero) {
+                    emitter.accept(mode);
+                }
+            }
+            if (!pos.isEmpty() && !neg.isEmpty()) {
+                CombineTask task = new CombineTask(new PatternTree(modes, cols), pos, posVals, neg, negVals, maxSupport, last ? emitter : null, 0, pos.size());
+                try {
+                    next.addAll(ForkJoinPool.commonPool().invoke(task));
+                } catch (ArithmeticException err) {
+                    System.err.println("Flux mode coefficients overflowed while balancing " + path.getChem(matrix.getRowChem(row)).getName());
+                    throw new Exception();
+                }
+            }
+            modes = next;
+        }
+        return emitter.count.get();
+    }
+
+    /**
+     * Reduces a row against the rows balanced so far, adding it if it is
+     * independent of them
+     *
+     * @return the rank of the balanced rows
+     */
+    private static int addToEchelon(List<double[]> echelon, int[] cols, long[] coeffs, int width) {
+        double[] row = new double[width];
+        for (int k = 0; k < cols.length; k++) {
+            row[cols[k]] = coeffs[k];
+        }
+        for (double[] prior : echelon) {
+            int lead = (int) prior[width];
+            double f = row[lead] / prior[lead];
+            if (f == 0) {
+                continue;
+            }
+            for (int j = 0; j < width; j++) {
+                row[j] -= f * prior[j];
+            }
+        }
+        int lead = -1;
+        double best = 1e-9;
+        for (int j = 0; j < width; j++) {
+            if (Math.abs(row[j]) > best) {
+                best = Math.abs(row[j]);
+                lead = j;
+            }
+        }
+        if (lead >= 0) {
+            //The pivot column is kept in the last slot
+            double[] stored = new double[width + 1];
+            System.arraycopy(row, 0, stored, 0, width);
+            stored[width] = lead;
+            echelon.add(stored);
+        }
+        return echelon.size();
+    }
+
+    private static long dot(int[] cols, long[] coeffs, long[] values) {
+        long total = 0;
+        for (int k = 0; k < cols.length; k++) {
+            total += coeffs[k] * values[cols[k]];
+        }
+        return total;
+    }
+
+    /**
+     * A flux vector over the reactions and drains, with its support as a
+     * bitset
+     */
+    private static final class Mode {
+        private final long[] values;
+        private final long[] support;
+
+        Mode(long[] values, long[] support) {
+            this.values = values;
+            this.support = support;
+        }
+    }
+
+    /**
+     * Converts modes to FluxModes and passes them on one at a time
+     */
+    private static final class Emitter {
+        private final CompiledPathway path;
+        private final int rxnCount;
+        private final Consumer<FluxMode> consumer;
+        private final AtomicLong count = new AtomicLong();
+
+        Emitter(CompiledPathway path, int rxnCount, Consumer<FluxMode> consumer) {
+            this.path = path;
+            this.rxnCount = rxnCount;
+            this.consumer = consumer;
+        }
+
+        void accept(Mode mode) {
+            long[] fluxes = new long[rxnCount];
+            System.arraycopy(mode.values, 0, fluxes, 0, rxnCount);
+            FluxMode out = new FluxMode(path, fluxes);
+            synchronized (this) {
+                consumer.accept(out);
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * A bit pattern tree over the supports of a set of modes.  Each inner
+     * node splits its modes on one reaction, so a search for supports within
+     * a given set of reactions can skip every subtree that uses a reaction
+     * outside it.
+     */
+    private static final class PatternTree {
+        private final int bit;
+        private final PatternTree without;
+        private final PatternTree with;
+        private final Mode[] leaf;
+
+        PatternTree(List<Mode> modes, int cols) {
+            this(modes.toArray(new Mode[0]), cols);
+        }
+
+        private PatternTree(Mode[] modes, int cols) {
+            //Split on the reaction used by closest to half of the modes
+            int split = -1;
+            if (modes.length > LEAF_SIZE) {
+                int best = 0;
+                for (int j = 0; j < cols; j++) {
+                    int count = 0;
+                    for (Mode mode : modes) {
+                        if ((mode.support[j >> 6] & (1L << j)) != 0) {
+                            count++;
+                        }
+                    }
+                    int balance = Math.min(count, modes.length - count);
+                    if (balance > best) {
+                        best = balance;
+                        split = j;
+                    }
+                }
+            }
+            if (split < 0) {
+                this.bit = -1;
+                this.without = null;
+                this.with = null;
+                this.leaf = modes;
+                return;
+            }
+
+            List<Mode> off = new ArrayList<>();
+            List<Mode> on = new ArrayList<>();
+            for (Mode mode : modes) {
+                if ((mode.support[split >> 6] & (1L << split)) != 0) {
+                    on.add(mode);
+                } else {
+                    off.add(mode);
+                }
+            }
+            this.bit = split;
+            this.without = new PatternTree(off.toArray(new Mode[0]), cols);
+            this.with = new PatternTree(on.toArray(new Mode[0]), cols);
+            this.leaf = null;
+        }
+
+        /**
+         * @return whether a mode other than p and n has its support within
+         * the union
+         */
+        boolean hasSubset(long[] union, Mode p, Mode n) {
+            if (leaf == null) {
+                if (without.hasSubset(union, p, n)) {
+                    return true;
+                }
+                return (union[bit >> 6] & (1L << bit)) != 0 && with.hasSubset(union, p, n);
+            }
+            for (Mode other : leaf) {
+                if (other == p || other == n) {
+                    continue;
+                }
+                boolean subset = true;
+                for (int w = 0; w < union.length && subset; w++) {
+                    subset = (other.support[w] & ~union[w]) == 0;
+                }
+                if (subset) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Combines each of a range of the positive modes with every negative
+     * mode, keeping the adjacent pairs.  With an emitter the results are
+     * passed straight on instead of returned.
+     */
+    private static final class CombineTask extends RecursiveTask<List<Mode>> {
+        private static final long serialVersionUID = 1L;
+
+        private final PatternTree tree;
+        private final List<Mode> pos;
+        private final List<Long> posVals;
+        private final List<Mode> neg;
+        private final List<Long> negVals;
+        private final int maxSupport;
+        private final Emitter emitter;
+        private final int from;
+        private final int to;
+
+        CombineTask(PatternTree tree, List<Mode> pos, List<Long> posVals, List<Mode> neg, List<Long> negVals,
+                int maxSupport, Emitter emitter, int from, int to) {
+            this.tree = tree;
+            this.pos = pos;
+            this.posVals = posVals;
+            this.neg = neg;
+            this.negVals = negVals;
+            this.maxSupport = maxSupport;
+            this.emitter = emitter;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Mode> compute() {
+            if (to - from > 1 && (long) (to - from) * neg.size() > SPLIT_PAIRS) {
+                int mid = (from + to) >>> 1;
+                CombineTask left = new CombineTask(tree, pos, posVals, neg, negVals, maxSupport, emitter, from, mid);
+                CombineTask right = new CombineTask(tree, pos, posVals, neg, negVals, maxSupport, emitter, mid, to);
+                left.fork();
+                List<Mode> out = right.compute();
+                out.addAll(left.join());
+                return out;
+            }
+
+            List<Mode> out = new ArrayList<>();
+            int words = pos.get(0).support.length;
+            long[] union = new long[words];
+            for (int a = from; a < to; a++) {
+                Mode p = pos.get(a);
+                for (int b = 0; b < neg.size(); b++) {
+                    Mode n = neg.get(b);
+                    int size = 0;
+                    for (int w = 0; w < words; w++) {
+                        union[w] = p.support[w] | n.support[w];
+                        size += Long.bitCount(union[w]);
+                    }
+                    if (size > maxSupport || tree.hasSubset(union, p, n)) {
+                        continue;
+                    }
+                    Mode combined = combine(p, posVals.get(a), n, negVals.get(b), union.clone());
+                    if (emitter != null) {
+                        emitter.accept(combined);
+                    } else {
+                        out.add(combined);
+                    }
+                }
+            }
+            return out;
+        }
+
+        /**
+         * Cancels the row out of the two modes and reduces the result to its
+         * smallest whole numbers
+         */
+        private static Mode combine(Mode p, long pVal, Mode n, long nVal, long[] support) {
+            int cols = p.values.length;
+            long[] values = new long[cols];
+            long gcd = 0;
+            for (int j = 0; j < cols; j++) {
+                long val = Math.addExact(Math.multiplyExact(-nVal, p.values[j]), Math.multiplyExact(pVal, n.values[j]));
+                values[j] = val;
+                gcd = gcd(gcd, val);
+            }
+            if (gcd > 1) {
+                for (int j = 0; j < cols; j++) {
+                    values[j] /= gcd;
+                }
+            }
+            return new Mode(values, support);
+        }
+
+        private static long gcd(long a, long b) {
+            while (b != 0) {
+                long t = a % b;
+                a = b;
+                b = t;
+            }
+            return a;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String file = args.length > 0 ? args[0] : "data/glycerol_to_pimar.txt";
+        Pathway path = new PathwayParser().run(FileUtils.readFile(file));
+        System.out.println("Elementary modes of:\n\n" + path.getName() + "\n");
+
+        ElementaryModes efm = new ElementaryModes();
+        CompiledPathway compiled = CompiledPathway.compile(path, CofactorProfile.getDefault().getCofactors());
+        long count = efm.run(compiled, mode -> {
+            System.out.println(mode);
+            for (Map.Entry<Chem, Long> entry : mode.getBalance().entrySet()) {
+                System.out.println("    " + entry.getKey().getName() + " : " + entry.getValue());
+            }
+        });
+        System.out.println("\n" + count + " modes");
+    }
+}
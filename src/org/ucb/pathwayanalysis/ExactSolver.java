@@ -0,0 +1,263 @@
+package org.ucb.pathwayanalysis;
+
+import java.math.BigInteger;
+import org.ucb.act.utils.Metrics;
+
+/**
+ * Solves a square system of linear equations with integer coefficients
+ * exactly, returning the smallest integer solution vector that points the
+ * same way as the true (rational) solution.  Stoichiometric coefficients
+ * are integers, so this gives whole-number reaction coefficients directly,
+ * with no tolerance and no search for a multiplier.
+ *
+ * The elimination is fraction-free.  Each pivot column is cleared from
+ * only the rows below that have an entry in it, by cross-multiplying with
+ * the pivot row, and each row changed is divided through by the gcd of its
+ * entries, so the numbers stay small and a sparse stoichiometric matrix is
+ * cheap to eliminate.  Back substitution then keeps the solution as whole
+ * numbers over a single denominator, which is dropped at the end.  The work
+ * is done on longs, and is redone on BigIntegers if any step would
+ * overflow.
+ *
+ * @author J. Christopher Anderson
+ */
+public class ExactSolver {
+
+    private static final Metrics.Counter SWAPS = Metrics.getShared().counter("exact.swaps");
+    private static final Metrics.Counter OVERFLOWS = Metrics.getShared().counter("exact.overflows");
+
+    /**
+     * Solves mat * x = objective, where the entries of both are whole
+     * numbers stored as doubles
+     */
+    public long[] run(SparseMatrix mat, double[] objective) throws Exception {
+        int n = mat.getCols();
+        if (mat.getRows() != n || objective.length != n) {
+            throw new Exception("ExactSolver requires a square system, got " + mat.getRows() + " x " + n);
+        }
+
+        long[][] aug = new long[n][n + 1];
+        int[] colStarts = mat.getColStarts();
+        int[] rowIndices = mat.getRowIndices();
+        double[] values = mat.getValues();
+        for (int j = 0; j < n; j++) {
+            for (int p = colStarts[j]; p < colStarts[j + 1]; p++) {
+                aug[rowIndices[p]][j] = toLong(values[p]);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            aug[i][n] = toLong(objective[i]);
+        }
+        return run(aug);
+    }
+
+    /**
+     * Solves the system given as an n x (n+1) augmented matrix, which is
+     * not modified
+     */
+    public long[] run(long[][] aug) throws Exception {
+        try {
+            return solveLong(aug);
+        } catch (ArithmeticException err) {
+            OVERFLOWS.increment();
+            return solveBig(aug);
+        }
+    }
+
+    private static long toLong(double val) throws Exception {
+        if (val != Math.rint(val) || Math.abs(val) > Long.MAX_VALUE / 2) {
+            throw new Exception("ExactSolver requires integer coefficients, got " + val);
+        }
+        return (long) val;
+    }
+
+    private static long[] solveLong(long[][] input) throws Exception {
+        int n = input.length;
+        long[][] m = new long[n][];
+        for (int i = 0; i < n; i++) {
+            m[i] = input[i].clone();
+        }
+
+        for (int k = 0; k < n; k++) {
+            //Find a non-zero pivot, swapping rows never changes the solution
+            int r = k;
+            while (r < n && m[r][k] == 0) {
+                r++;
+            }
+            if (r == n) {
+                throw new Exception("Matrix is singular at column " + k);
+            }
+            if (r != k) {
+                SWAPS.increment();
+            }
+            long[] tmp = m[k];
+            m[k] = m[r];
+            m[r] = tmp;
+
+            //Eliminate column k from just the rows below that have it
+            long[] pivotRow = m[k];
+            long pivot = pivotRow[k];
+            for (int i = k + 1; i < n; i++) {
+                long[] row = m[i];
+                if (row[k] == 0) {
+                    continue;
+                }
+                long common = gcd(Math.abs(pivot), Math.abs(row[k]));
+                long scale = pivot / common;
+                long factor = row[k] / common;
+                row[k] = 0;
+                long rowGcd = 0;
+                for (int j = k + 1; j <= n; j++) {
+                    if (row[j] != 0 || pivotRow[j] != 0) {
+                        row[j] = Math.subtractExact(Math.multiplyExact(scale, row[j]), Math.multiplyExact(factor, pivotRow[j]));
+                        rowGcd = gcd(rowGcd, Math.abs(row[j]));
+                    }
+                }
+
+                //Keep the row as small as it can be
+                if (rowGcd > 1) {
+                    for (int j = k + 1; j <= n; j++) {
+                        row[j] /= rowGcd;
+                    }
+                }
+            }
+        }
+
+        //Back substitute, keeping the solution as whole numbers over one positive denominator
+        long[] out = new long[n];
+        long denom = 1;
+        for (int i = n - 1; i >= 0; i--) {
+            long[] row = m[i];
+            long num = Math.multiplyExact(row[n], denom);
+            for (int j = i + 1; j < n; j++) {
+                if (row[j] != 0) {
+                    num = Math.subtractExact(num, Math.multiplyExact(row[j], out[j]));
+                }
+            }
+            long common = gcd(Math.abs(num), Math.abs(row[i]));
+            long scale = row[i] / common;
+            if (scale < 0) {
+                scale = -scale;
+                num = -num;
+            }
+            if (scale != 1) {
+                denom = Math.multiplyExact(denom, scale);
+                for (int j = i + 1; j < n; j++) {
+                    out[j] = Math.multiplyExact(out[j], scale);
+                }
+            }
+            out[i] = num / common;
+        }
+
+        //The denominator is positive, so dropping it keeps the direction
+        long gcd = 0;
+        for (int i = 0; i < n; i++) {
+            gcd = gcd(gcd, Math.abs(out[i]));
+        }
+        if (gcd > 1) {
+            for (int i = 0; i < n; i++) {
+                out[i] /= gcd;
+            }
+        }
+        return out;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static long[] solveBig(long[][] input) throws Exception {
+        int n = input.length;
+        BigInteger[][] m = new BigInteger[n][n + 1];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= n; j++) {
+                m[i][j] = BigInteger.valueOf(input[i][j]);
+            }
+        }
+
+        for (int k = 0; k < n; k++) {
+            int r = k;
+            while (r < n && m[r][k].signum() == 0) {
+                r++;
+            }
+            if (r == n) {
+                throw new Exception("Matrix is singular at column " + k);
+            }
+            if (r != k) {
+                SWAPS.increment();
+            }
+            BigInteger[] tmp = m[k];
+            m[k] = m[r];
+            m[r] = tmp;
+
+            BigInteger[] pivotRow = m[k];
+            BigInteger pivot = pivotRow[k];
+            for (int i = k + 1; i < n; i++) {
+                BigInteger[] row = m[i];
+                if (row[k].signum() == 0) {
+                    continue;
+                }
+                BigInteger common = pivot.gcd(row[k]);
+                BigInteger scale = pivot.divide(common);
+                BigInteger factor = row[k].divide(common);
+                row[k] = BigInteger.ZERO;
+                BigInteger rowGcd = BigInteger.ZERO;
+                for (int j = k + 1; j <= n; j++) {
+                    if (row[j].signum() != 0 || pivotRow[j].signum() != 0) {
+                        row[j] = scale.multiply(row[j]).subtract(factor.multiply(pivotRow[j]));
+                        rowGcd = rowGcd.gcd(row[j]);
+                    }
+                }
+                if (rowGcd.compareTo(BigInteger.ONE) > 0) {
+                    for (int j = k + 1; j <= n; j++) {
+                        row[j] = row[j].divide(rowGcd);
+                    }
+                }
+            }
+        }
+
+        BigInteger[] out = new BigInteger[n];
+        BigInteger denom = BigInteger.ONE;
+        for (int i = n - 1; i >= 0; i--) {
+            BigInteger[] row = m[i];
+            BigInteger num = row[n].multiply(denom);
+            for (int j = i + 1; j < n; j++) {
+                if (row[j].signum() != 0) {
+                    num = num.subtract(row[j].multiply(out[j]));
+                }
+            }
+            BigInteger common = num.gcd(row[i]);
+            BigInteger scale = row[i].divide(common);
+            if (scale.signum() < 0) {
+                scale = scale.negate();
+                num = num.negate();
+            }
+            if (!scale.equals(BigInteger.ONE)) {
+                denom = denom.multiply(scale);
+                for (int j = i + 1; j < n; j++) {
+                    out[j] = out[j].multiply(scale);
+                }
+            }
+            out[i] = num.divide(common);
+        }
+
+        BigInteger gcd = BigInteger.ZERO;
+        for (int i = 0; i < n; i++) {
+            gcd = gcd.gcd(out[i]);
+        }
+        long[] result = new long[n];
+        for (int i = 0; i < n; i++) {
+            BigInteger val = gcd.signum() == 0 ? out[i] : out[i].divide(gcd);
+            if (val.bitLength() > 63) {
+                throw new Exception("Solution coefficient too large: " + val);
+            }
+            result[i] = val.longValue();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,29 @@
+package org.ucb.pathwayanalysis;
+
+/**
+ * A square linear system that has been factored once and can then be solved
+ * for any number of right-hand sides.
+ *
+ * @author J. Christopher Anderson
+ */
+public interface Factorization {
+
+    int size();
+
+    /**
+     * Solves A*x = b, leaving b untouched
+     */
+    double[] solve(double[] b);
+
+    /**
+     * Solves A*x = b for each row of rhs, for example one objective vector
+     * per output chemical
+     */
+    default double[][] solve(double[][] rhs) {
+        double[][] out = new double[rhs.length][];
+        for (int i = 0; i < rhs.length; i++) {
+            out[i] = solve(rhs[i]);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,288 @@
+package org.ucb.pathwayanalysis;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.ucb.act.utils.FileUtils;
+import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.CompiledPathway;
+import org.ucb.pathwayanalysis.model.FeedstockTable;
+import org.ucb.pathwayanalysis.model.Formula;
+import org.ucb.pathwayanalysis.model.MolProperties;
+import org.ucb.pathwayanalysis.model.Pathway;
+
+/**
+ * A Function that prices the feedstocks of a library of pathways and totals
+ * the elements they draw, per kg of product.  Each pathway is balanced, its
+ * consumed inputs are matched by InChI to media chemicals with a price per
+ * ton (data/media_chems.txt), and the demand for each element is set
+ * against the elemental make-up of dry biomass (data/dry_mass_weights.txt).
+ *
+ * InChIs are matched with their stereo layers removed, so a pathway's
+ * glucose is priced as the media's starch.  Exact masses stand in for molar
+ * masses; the difference is well under one percent.
+ *
+ * The price, molar mass and element masses of every chemical in the library
+ * are gathered into arrays once, so costing each pathway is a few dot
+ * products over its net balance, and the pathways are costed in parallel.
+ * Pathways are balanced by least squares unless told otherwise, so that
+ * branched pathways with more intermediates than reactions are costed too.
+ *
+ * @author J. Christopher Anderson
+ */
+public class FeedstockCost {
+
+    /**
+     * The elements whose demand is reported unless told otherwise
+     */
+    public static final List<String> DEFAULT_ELEMENTS = Arrays.asList("C", "N", "P", "S");
+
+    private static final double GRAMS_PER_TON = 1000000;
+
+    private final Map<String, Double> pricesByInchi;
+    private final Map<String, Double> biomassByElement;
+    private final List<String> elements;
+    private final CofactorProfile profile;
+    private final PathwayBalancer balancer;
+    private final MolPropertyCache cache;
+    private final InchiFormulaParser parser = new InchiFormulaParser();
+
+    /**
+     * @param pricesByInchi dollars per ton of each media chemical
+     * @param biomassByElement percent of dry biomass made up by each element
+     */
+    public FeedstockCost(Map<String, Double> pricesByInchi, Map<String, Double> biomassByElement) {
+        this(pricesByInchi, biomassByElement, DEFAULT_ELEMENTS, CofactorProfile.getDefault());
+    }
+
+    public FeedstockCost(Map<String, Double> pricesByInchi, Map<String, Double> biomassByElement, List<String> elements, CofactorProfile profile) {
+        this(pricesByInchi, biomassByElement, elements, profile, PathwayBalancer.Method.LEAST_SQUARES);
+    }
+
+    public FeedstockCost(Map<String, Double> pricesByInchi, Map<String, Double> biomassByElement, List<String> elements,
+            CofactorProfile profile, PathwayBalancer.Method method) {
+        this.pricesByInchi = new HashMap<>();
+        for (Map.Entry<String, Double> entry : pricesByInchi.entrySet()) {
+            this.pricesByInchi.put(stripStereo(entry.getKey()), entry.getValue());
+        }
+        this.biomassByElement = biomassByElement;
+        this.elements = elements;
+        this.profile = profile;
+        this.balancer = new PathwayBalancer(profile, method);
+        this.cache = MolPropertyCache.getShared();
+    }
+
+    /**
+     * Reads the prices and biomass make-up from media_chems.txt and
+     * dry_mass_weights.txt in a directory
+     */
+    public static FeedstockCost load(String dir) throws Exception {
+        return new FeedstockCost(readPrices(dir + "/media_chems.txt"), readBiomass(dir + "/dry_mass_weights.txt"));
+    }
+
+    /**
+     * Reads a table of chemical, InChI, description and dollars per ton
+     * under a header row, keyed by InChI
+     */
+    public static Map<String, Double> readPrices(String path) throws Exception {
+        String data = FileUtils.readFile(path);
+        String[] lines = data.split("\\r|\\r?\\n");
+        Map<String, Double> out = new LinkedHashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            if (lines[i].trim().isEmpty()) {
+                continue;
+            }
+            String[] tabs = lines[i].split("\t");
+            try {
+                String inchi = tabs[1].replace("\"", "").trim();
+                out.put(inchi, Double.parseDouble(tabs[3].trim()));
+            } catch (Exception err) {
+                System.err.println("Error parsing media chemical on:\n" + lines[i]);
+                throw new Exception();
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Reads a table of element, atomic number and percent dry weight,
+     * skipping any lines that are not rows of it
+     */
+    public static Map<String, Double> readBiomass(String path) throws Exception {
+        String data = FileUtils.readFile(path);
+        Map<String, Double> out = new LinkedHashMap<>();
+        for (String line : data.split("\\r|\\r?\\n")) {
+            String[] tabs = line.split("\t");
+            if (tabs.length < 3 || !tabs[1].trim().matches("\\d+")) {
+                continue;
+            }
+            out.put(tabs[0].trim(), Double.parseDouble(tabs[2].trim()));
+        }
+        return out;
+    }
+
+    /**
+     * @return an InChI without its /b, /t, /m and /s stereo layers
+     */
+    public static String stripStereo(String inchi) {
+        StringBuilder sb = new StringBuilder();
+        for (String layer : inchi.split("/")) {
+            if (layer.isEmpty() || (sb.length() > 0 && "btms".indexOf(layer.charAt(0)) >= 0)) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append("/");
+            }
+            sb.append(layer);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Costs every pathway, in parallel.  A pathway that cannot be balanced,
+     * or that consumes an input with no price, gets an error in its row
+     * rather than stopping the batch.
+     */
+    public FeedstockTable run(List<Pathway> paths) {
+        //Number every chemical in the library
+        Map<Chem, Integer> chemToIndex = new HashMap<>();
+        List<Chem> chems = new ArrayList<>();
+        for (Pathway path : paths) {
+            for (Chem achem : path.getChemicals().values()) {
+                if (!chemToIndex.containsKey(achem)) {
+                    chemToIndex.put(achem, chems.size());
+                    chems.add(achem);
+                }
+            }
+        }
+
+        //Gather the price per gram, molar mass and grams of each element per mole
+        int width = elements.size();
+        double[] prices = new double[chems.size()];
+        double[] masses = new double[chems.size()];
+        double[] elementMasses = new double[chems.size() * width];
+        boolean[] known = new boolean[chems.size()];
+        for (int i = 0; i < chems.size(); i++) {
+            Chem achem = chems.get(i);
+            Double price = achem.getInchi() == null ? null : pricesByInchi.get(stripStereo(achem.getInchi()));
+            prices[i] = price == null ? Double.NaN : price / GRAMS_PER_TON;
+            try {
+                MolProperties props = cache.get(achem);
+                masses[i] = props.getExactMass();
+                Formula composition = props.getComposition();
+                if (composition != null) {
+                    for (int e = 0; e < width; e++) {
+                        elementMasses[i * width + e] = massOfElement(elements.get(e), composition.getCount(elements.get(e)));
+                    }
+                    known[i] = true;
+                }
+            } catch (Exception err) {
+                masses[i] = Double.NaN;
+            }
+        }
+
+        double[] costs = new double[paths.size()];
+        double[] demands = new double[paths.size() * width];
+        String[] errors = new String[paths.size()];
+        IntStream.range(0, paths.size()).parallel().forEach(p -> {
+            try {
+                CompiledPathway compiled = CompiledPathway.compile(paths.get(p), profile.getCofactors());
+                int[] net = balancer.run(compiled);
+                errors[p] = cost(compiled, net, chemToIndex, prices, masses, elementMasses, known, p, costs, demands);
+            } catch (Exception err) {
+                errors[p] = err.getMessage() == null ? err.toString() : err.getMessage();
+            }
+        });
+
+        double[] biomass = new double[width];
+        for (int e = 0; e < width; e++) {
+            Double percent = biomassByElement.get(elements.get(e));
+            biomass[e] = percent == null ? 0 : percent / 100;
+        }
+        List<String> names = new ArrayList<>();
+        for (Pathway path : paths) {
+            names.add(path.getName());
+        }
+        return new FeedstockTable(names, elements, biomass, costs, demands, errors);
+    }
+
+    /**
+     * Writes one pathway's cost and demands
+     * @return the reason it could not be costed, or null
+     */
+    private String cost(CompiledPathway compiled, int[] net, Map<Chem, Integer> chemToIndex, double[] prices,
+            double[] masses, double[] elementMasses, boolean[] known, int row, double[] costs, double[] demands) {
+        int width = elements.size();
+        double dollars = 0;
+        double product = 0;
+        double[] drawn = new double[width];
+        for (int chem = 0; chem < net.length; chem++) {
+            if (net[chem] == 0 || compiled.isCofactor(chem)) {
+                continue;
+            }
+            int lib = chemToIndex.get(compiled.getChem(chem));
+            String name = compiled.getChem(chem).getName();
+            if (Double.isNaN(masses[lib])) {
+                return "no mass for " + name;
+            }
+            if (net[chem] > 0 && compiled.isOutput(chem)) {
+                product += net[chem] * masses[lib];
+            } else if (net[chem] < 0 && compiled.isInput(chem)) {
+                if (Double.isNaN(prices[lib])) {
+                    return "no price for " + name;
+                }
+                if (!known[lib]) {
+                    return "no formula for " + name;
+                }
+                dollars -= net[chem] * masses[lib] * prices[lib];
+                for (int e = 0; e < width; e++) {
+                    drawn[e] -= net[chem] * elementMasses[lib * width + e];
+                }
+            }
+        }
+        if (product <= 0) {
+            return "no product";
+        }
+
+        costs[row] = dollars / product * 1000;
+        for (int e = 0; e < width; e++) {
+            demands[row * width + e] = drawn[e] / product;
+        }
+        return null;
+    }
+
+    private double massOfElement(String element, int count) throws Exception {
+        if (count == 0) {
+            return 0;
+        }
+        Map<String, Integer> atoms = new HashMap<>();
+        atoms.put(element, count);
+        return parser.massOf(new Formula(atoms, 0));
+    }
+
+    public static void main(String[] args) throws Exception {
+        String dir = args.length > 0 ? args[0] : "data";
+        List<Path> files;
+        try (Stream<Path> walk = FileUtils.walkFiles(dir, "txt")) {
+            files = walk.sorted().collect(Collectors.toList());
+        }
+        List<Pathway> paths = new ArrayList<>();
+        for (Path file : files) {
+            try {
+                paths.addAll(new PathwayParser().runFile(file.toString()));
+            } catch (Exception err) {
+                System.err.println("Skipping " + file + ", it is not a pathway file");
+            }
+        }
+
+        FeedstockCost costing = FeedstockCost.load(dir);
+        System.out.println(costing.run(paths));
+    }
+}
@@ -0,0 +1,251 @@
+package org.ucb.pathwayanalysis;
+
+import java.util.Arrays;
+import org.ucb.act.utils.FileUtils;
+import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.CompiledPathway;
+import org.ucb.pathwayanalysis.model.CompiledRxn;
+import org.ucb.pathwayanalysis.model.FluxSolution;
+import org.ucb.pathwayanalysis.model.Pathway;
+
+/**
+ * A Function that performs flux balance analysis on a Pathway as a linear
+ * program: it finds the reaction fluxes that maximize the flux into the
+ * outputs, with every intermediate at steady state (S.v = 0), each reaction
+ * within its flux bounds and each input taken up no faster than its uptake
+ * limit.  Cofactors are assumed to be supplied and regenerated freely.
+ *
+ * Unlike the square solve of PathwayBalancer, the number of reactions need
+ * not match the number of intermediates, so branched pathways and those
+ * with alternative routes, like chorismate.txt, can be analyzed.
+ *
+ * The linear program is kept between calls to run().  Changing a bound and
+ * running again re-solves from the previous optimum, which usually takes a
+ * few pivots, so sweeping an uptake rate costs little more than one solve.
+ * An instance is therefore not thread-safe; give each thread its own copy().
+ *
+ * @author J. Christopher Anderson
+ */
+public class FluxBalanceAnalysis {
+
+    /**
+     * The uptake limit of each input unless set otherwise
+     */
+    public static final double DEFAULT_UPTAKE = 10;
+
+    /**
+     * The upper bound on each reaction's flux unless set otherwise
+     */
+    public static final double DEFAULT_MAX_FLUX = 1000;
+
+    private final CompiledPathway pathway;
+
+    //Columns of the program: the reactions, then an uptake per input, then a secretion per output
+    private final int rxnCount;
+    private final int[] uptakeChem;
+    private final int[] secretionChem;
+    private final BoundedSimplex lp;
+
+    public FluxBalanceAnalysis(Pathway path) throws Exception {
+        this(path, CofactorProfile.getDefault());
+    }
+
+    public FluxBalanceAnalysis(Pathway path, CofactorProfile profile) throws Exception {
+        this(CompiledPathway.compile(path, profile.getCofactors()));
+    }
+
+    public FluxBalanceAnalysis(CompiledPathway path) throws Exception {
+        this.pathway = path;
+        this.rxnCount = path.getRxnCount();
+
+        //Give every non-cofactor chemical that takes part in a reaction a row
+        int chemCount = path.getChemCount();
+        int[] toRow = new int[chemCount];
+        Arrays.fill(toRow, -1);
+        int rows = 0;
+        int entries = 0;
+        for (int r = 0; r < rxnCount; r++) {
+            CompiledRxn rxn = path.getRxn(r);
+            for (int k = 0; k < rxn.size(); k++) {
+                int chem = rxn.getChem(k);
+                if (path.isCofactor(chem)) {
+                    continue;
+                }
+                if (toRow[chem] < 0) {
+                    toRow[chem] = rows++;
+                }
+                entries++;
+            }
+        }
+
+        //Exchange columns for the inputs and outputs that have a row
+        int inputs = 0;
+        int outputs = 0;
+        int[] inChems = new int[chemCount];
+        int[] outChems = new int[chemCount];
+        for (int chem = 0; chem < chemCount; chem++) {
+            if (toRow[chem] < 0) {
+                continue;
+            }
+            if (path.isInput(chem)) {
+                inChems[inputs++] = chem;
+            }
+            if (path.isOutput(chem)) {
+                outChems[outputs++] = chem;
+            }
+        }
+        this.uptakeChem = Arrays.copyOf(inChems, inputs);
+        this.secretionChem = Arrays.copyOf(outChems, outputs);
+
+        //Gather the coefficients as triplets
+        int count = entries + inputs + outputs;
+        int[] ti = new int[count];
+        int[] tj = new int[count];
+        double[] tx = new double[count];
+        int t = 0;
+        for (int r = 0; r < rxnCount; r++) {
+            CompiledRxn rxn = path.getRxn(r);
+            for (int k = 0; k < rxn.size(); k++) {
+                int row = toRow[rxn.getChem(k)];
+                if (row < 0) {
+                    continue;
+                }
+                ti[t] = row;
+                tj[t] = r;
+                tx[t] = rxn.getCoeff(k);
+                t++;
+            }
+        }
+        for (int i = 0; i < inputs; i++) {
+            ti[t] = toRow[uptakeChem[i]];
+            tj[t] = rxnCount + i;
+            tx[t] = 1;
+            t++;
+        }
+        for (int o = 0; o < outputs; o++) {
+            ti[t] = toRow[secretionChem[o]];
+            tj[t] = rxnCount + inputs + o;
+            tx[t] = -1;
+            t++;
+        }
+        int cols = rxnCount + inputs + outputs;
+        SparseMatrix mat = SparseMatrix.fromTriplets(rows, cols, ti, tj, tx, t);
+        this.lp = new BoundedSimplex(mat, new double[rows]);
+
+        //Maximize the secretion of the outputs
+        double[] objective = new double[cols];
+        for (int o = 0; o < outputs; o++) {
+            objective[rxnCount + inputs + o] = 1;
+        }
+        lp.setObjective(objective);
+        for (int r = 0; r < rxnCount; r++) {
+            lp.setBounds(r, 0, DEFAULT_MAX_FLUX);
+        }
+        for (int i = 0; i < inputs; i++) {
+            lp.setBounds(rxnCount + i, 0, DEFAULT_UPTAKE);
+        }
+    }
+
+    /**
+     * Copies another analysis, keeping the optimum it last reached as the
+     * starting point of the copy
+     */
+    private FluxBalanceAnalysis(FluxBalanceAnalysis other) {
+        this.pathway = other.pathway;
+        this.rxnCount = other.rxnCount;
+        this.uptakeChem = other.uptakeChem;
+        this.secretionChem = other.secretionChem;
+        this.lp = other.lp.copy();
+    }
+
+    /**
+     * @return an independent copy, for another thread to re-solve from this
+     * one's last optimum
+     */
+    public FluxBalanceAnalysis copy() {
+        return new FluxBalanceAnalysis(this);
+    }
+
+    public CompiledPathway getPathway() {
+        return pathway;
+    }
+
+    /**
+     * Sets the flux bounds of a reaction.  A negative lower bound lets the
+     * reaction run in reverse; zero for both knocks it out.
+     */
+    public void setReactionBounds(int rxn, double lower, double upper) throws Exception {
+        if (rxn < 0 || rxn >= rxnCount) {
+            System.err.println("No reaction " + rxn + " in " + pathway.getName());
+            throw new Exception();
+        }
+        lp.setBounds(rxn, lower, upper);
+    }
+
+    public double getLowerBound(int rxn) {
+        return lp.getLower(rxn);
+    }
+
+    public double getUpperBound(int rxn) {
+        return lp.getUpper(rxn);
+    }
+
+    /**
+     * Sets how fast an input can be taken up
+     */
+    public void setUptakeLimit(Chem input, double limit) throws Exception {
+        int chem = pathway.indexOf(input);
+        for (int i = 0; i < uptakeChem.length; i++) {
+            if (uptakeChem[i] == chem) {
+                lp.setBounds(rxnCount + i, 0, limit);
+                return;
+            }
+        }
+        System.err.println("Not an input of the pathway: " + input.getName());
+        throw new Exception();
+    }
+
+    /**
+     * @return the number of simplex iterations taken by the last run
+     */
+    public int getIterations() {
+        return lp.getIterations();
+    }
+
+    public FluxSolution run() throws Exception {
+        FluxSolution.Status status = lp.solve();
+        double[] fluxes = new double[rxnCount];
+        double[] balance = new double[pathway.getChemCount()];
+        if (status != FluxSolution.Status.OPTIMAL) {
+            return new FluxSolution(pathway, status, 0, fluxes, balance);
+        }
+
+        //The net balance follows from the reaction fluxes
+        for (int r = 0; r < rxnCount; r++) {
+            double flux = lp.getValue(r);
+            fluxes[r] = flux;
+            CompiledRxn rxn = pathway.getRxn(r);
+            for (int k = 0; k < rxn.size(); k++) {
+                balance[rxn.getChem(k)] += rxn.getCoeff(k) * flux;
+            }
+        }
+        return new FluxSolution(pathway, status, lp.getObjectiveValue(), fluxes, balance);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String file = args.length > 0 ? args[0] : "data/chorismate.txt";
+        Pathway path = new PathwayParser().run(FileUtils.readFile(file));
+
+        FluxBalanceAnalysis fba = new FluxBalanceAnalysis(path);
+        System.out.println(fba.run());
+
+        //Sweep the uptake of the first input, each solve warm starting from the last
+        Chem input = path.getInputs().iterator().next();
+        System.out.println("uptake\toutput flux\titerations");
+        for (int uptake = 1; uptake <= 10; uptake++) {
+            fba.setUptakeLimit(input, uptake);
+            FluxSolution sol = fba.run();
+            System.out.println(uptake + "\t" + sol.getObjective() + "\t" + fba.getIterations());
+        }
+    }
+}
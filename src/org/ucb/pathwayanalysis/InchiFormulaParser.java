@@ -0,0 +1,200 @@
+package org.ucb.pathwayanalysis;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.ucb.pathwayanalysis.model.Formula;
+import org.ucb.pathwayanalysis.model.MolProperties;
+
+/**
+ * A Function that reads the molecular formula, exact mass and net charge of
+ * a chemical straight from its InChI, without importing it through ChemAxon.
+ * Everything needed is in the main layers: the formula layer gives the
+ * atoms, the /q layer the charge of each component and the /p layer the
+ * protons added or removed, each of which changes both the hydrogen count
+ * and the charge.
+ *
+ * The exact mass is the monoisotopic mass of the atoms, with no correction
+ * for the electrons lost or gained.  InChIs with an isotopic layer, or with
+ * an element missing from the mass table, are rejected so that the caller
+ * can fall back on ChemAxon.
+ *
+ * @author J. Christopher Anderson
+ */
+public class InchiFormulaParser {
+
+    //The mass of the most abundant isotope of each element
+    private static final Map<String, Double> MONOISOTOPIC_MASSES = new HashMap<>();
+
+    static {
+        MONOISOTOPIC_MASSES.put("H", 1.00782503207);
+        MONOISOTOPIC_MASSES.put("Li", 7.01600455);
+        MONOISOTOPIC_MASSES.put("B", 11.0093054);
+        MONOISOTOPIC_MASSES.put("C", 12.0);
+        MONOISOTOPIC_MASSES.put("N", 14.0030740048);
+        MONOISOTOPIC_MASSES.put("O", 15.99491461956);
+        MONOISOTOPIC_MASSES.put("F", 18.99840322);
+        MONOISOTOPIC_MASSES.put("Na", 22.9897692809);
+        MONOISOTOPIC_MASSES.put("Mg", 23.985041700);
+        MONOISOTOPIC_MASSES.put("Si", 27.9769265325);
+        MONOISOTOPIC_MASSES.put("P", 30.97376163);
+        MONOISOTOPIC_MASSES.put("S", 31.97207100);
+        MONOISOTOPIC_MASSES.put("Cl", 34.96885268);
+        MONOISOTOPIC_MASSES.put("K", 38.96370668);
+        MONOISOTOPIC_MASSES.put("Ca", 39.96259098);
+        MONOISOTOPIC_MASSES.put("Mn", 54.9380451);
+        MONOISOTOPIC_MASSES.put("Fe", 55.9349375);
+        MONOISOTOPIC_MASSES.put("Co", 58.9331950);
+        MONOISOTOPIC_MASSES.put("Ni", 57.9353429);
+        MONOISOTOPIC_MASSES.put("Cu", 62.9295975);
+        MONOISOTOPIC_MASSES.put("Zn", 63.9291422);
+        MONOISOTOPIC_MASSES.put("Se", 79.9165213);
+        MONOISOTOPIC_MASSES.put("Br", 78.9183371);
+        MONOISOTOPIC_MASSES.put("Mo", 97.9054082);
+        MONOISOTOPIC_MASSES.put("I", 126.904473);
+    }
+
+    public MolProperties run(String inchi) throws Exception {
+        int start = inchi.indexOf('/');
+        if (!inchi.startsWith("InChI=1") || start < 0) {
+            System.err.println("Not an InChI: " + inchi);
+            throw new Exception();
+        }
+        String[] layers = inchi.substring(start + 1).split("/");
+
+        Map<String, Integer> counts = new HashMap<>();
+        int charge = 0;
+        for (int i = 0; i < layers.length; i++) {
+            String layer = layers[i];
+            if (layer.isEmpty()) {
+                continue;
+            }
+            char prefix = layer.charAt(0);
+            if (i == 0 && !Character.isLowerCase(prefix)) {
+                //The formula layer, absent only for a bare proton
+                addFormula(layer, counts);
+            } else if (prefix == 'q') {
+                charge += parseCharges(layer.substring(1), inchi);
+            } else if (prefix == 'p') {
+                int protons = parseInt(layer.substring(1), inchi);
+                counts.merge("H", protons, Integer::sum);
+                charge += protons;
+            } else if (prefix == 'i') {
+                System.err.println("Isotopic InChIs are not supported: " + inchi);
+                throw new Exception();
+            } else if (prefix == 'f' || prefix == 'r') {
+                //The fixed-H and reconnected layers only refine the main one
+                break;
+            }
+        }
+
+        if (counts.getOrDefault("H", 0) < 0) {
+            System.err.println("More protons removed than there are hydrogens: " + inchi);
+            throw new Exception();
+        }
+        Formula formula = new Formula(counts, charge);
+        return new MolProperties(massOf(formula), formula.toString(), formula);
+    }
+
+    /**
+     * Parses a formula such as C6H12O6 or InChI's 2H3N.H2O4S, with an
+     * optional multiplier before each dot-separated component
+     */
+    public Formula parseFormula(String text, int charge) throws Exception {
+        Map<String, Integer> counts = new HashMap<>();
+        addFormula(text, counts);
+        return new Formula(counts, charge);
+    }
+
+    /**
+     * @return the monoisotopic mass of a formula's atoms
+     */
+    public double massOf(Formula formula) throws Exception {
+        double mass = 0.0;
+        for (Map.Entry<String, Integer> entry : formula.getCounts().entrySet()) {
+            Double atomMass = MONOISOTOPIC_MASSES.get(entry.getKey());
+            if (atomMass == null) {
+                System.err.println("No mass known for element " + entry.getKey());
+                throw new Exception();
+            }
+            mass += atomMass * entry.getValue();
+        }
+        return mass;
+    }
+
+    private static void addFormula(String text, Map<String, Integer> counts) throws Exception {
+        for (String component : text.split("\\.")) {
+            int pos = 0;
+            int multiplier = 1;
+            while (pos < component.length() && Character.isDigit(component.charAt(pos))) {
+                pos++;
+            }
+            if (pos > 0) {
+                multiplier = Integer.parseInt(component.substring(0, pos));
+            }
+
+            while (pos < component.length()) {
+                char first = component.charAt(pos);
+                if (!Character.isUpperCase(first)) {
+                    System.err.println("Error parsing formula: " + text);
+                    throw new Exception();
+                }
+                int end = pos + 1;
+                while (end < component.length() && Character.isLowerCase(component.charAt(end))) {
+                    end++;
+                }
+                String element = component.substring(pos, end);
+                pos = end;
+                while (end < component.length() && Character.isDigit(component.charAt(end))) {
+                    end++;
+                }
+                int count = end > pos ? Integer.parseInt(component.substring(pos, end)) : 1;
+                pos = end;
+                counts.merge(element, multiplier * count, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Sums a /q layer, whose components are separated by semicolons and may
+     * be repeated, as in +2;2*-1
+     */
+    private static int parseCharges(String layer, String inchi) throws Exception {
+        int total = 0;
+        for (String component : layer.split(";")) {
+            if (component.isEmpty()) {
+                continue;
+            }
+            int multiplier = 1;
+            int star = component.indexOf('*');
+            if (star >= 0) {
+                multiplier = parseInt(component.substring(0, star), inchi);
+                component = component.substring(star + 1);
+            }
+            total += multiplier * parseInt(component, inchi);
+        }
+        return total;
+    }
+
+    private static int parseInt(String text, String inchi) throws Exception {
+        try {
+            return Integer.parseInt(text.startsWith("+") ? text.substring(1) : text);
+        } catch (NumberFormatException err) {
+            System.err.println("Error parsing charge in " + inchi);
+            throw new Exception();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        InchiFormulaParser parser = new InchiFormulaParser();
+        String[] inchis = {
+            "InChI=1S/C6H12O6/c7-1-2-3(8)4(9)5(10)6(11)12-2/h2-11H,1H2/",
+            "InChI=1S/C21H27N7O14P2/c22-17-12-19(25-7-24-17)28(8-26-12)21-16(32)14(30)11(41-21)6-39-44(36,37)42-43(34,35)38-5-10-13(29)15(31)20(40-10)27-3-1-2-9(4-27)18(23)33/h1-4,7-8,10-11,13-16,20-21,29-32H,5-6H2,(H5-,22,23,24,25,33,34,35,36,37)/p+1/",
+            "InChI=1S/p+1",
+            "InChI=1S/Ca.2NO3/c;2*2-1(3)4/q+2;2*-1"
+        };
+        for (String inchi : inchis) {
+            MolProperties props = parser.run(inchi);
+            System.out.println(props.getFormula() + "\t" + props.getExactMass() + "\t" + props.getComposition().getCharge());
+        }
+    }
+}
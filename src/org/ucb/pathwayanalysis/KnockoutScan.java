@@ -0,0 +1,229 @@
+package org.ucb.pathwayanalysis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.ucb.act.utils.FileUtils;
+import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.CompiledPathway;
+import org.ucb.pathwayanalysis.model.FluxSolution;
+import org.ucb.pathwayanalysis.model.KnockoutTable;
+import org.ucb.pathwayanalysis.model.Pathway;
+import org.ucb.pathwayanalysis.model.Rxn;
+
+/**
+ * A Function that scans the variants of a Pathway with reactions knocked
+ * out or replaced, reporting for each the output flux and cofactor usage
+ * found by flux balance analysis.
+ *
+ * The unmodified pathway is solved once.  A variant differs from it only in
+ * the bounds of a few reactions: a knockout is pinned to zero flux, and a
+ * replacement is a candidate reaction, included in the program from the
+ * start but pinned to zero, that is released.  The base optimum therefore
+ * stays dual feasible, and each variant is solved from the base basis
+ * inverse by a few dual simplex pivots, each a rank-one update, rather than
+ * by a fresh solve.  The variants are split into runs of neighbours, which
+ * differ from each other in few reactions, and the runs are spread over the
+ * common fork-join pool, each starting from its own copy of the base.
+ *
+ * @author J. Christopher Anderson
+ */
+public class KnockoutScan {
+
+    //How many runs of variants to make per core
+    private static final int RUNS_PER_CORE = 4;
+
+    private final CofactorProfile profile;
+
+    public KnockoutScan() {
+        this(CofactorProfile.getDefault());
+    }
+
+    public KnockoutScan(CofactorProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Scans the knockout of each reaction in turn
+     */
+    public KnockoutTable run(Pathway path) throws Exception {
+        int rxnCount = path.getReactions().size();
+        List<Variant> variants = new ArrayList<>();
+        for (int r = 0; r < rxnCount; r++) {
+            variants.add(new Variant("-R" + r, new int[]{r}, new int[0]));
+        }
+        return scan(path, new ArrayList<>(), variants);
+    }
+
+    /**
+     * Scans the knockout of each reaction and of each pair of reactions
+     */
+    public KnockoutTable runPairs(Pathway path) throws Exception {
+        int rxnCount = path.getReactions().size();
+        List<Variant> variants = new ArrayList<>();
+        for (int r = 0; r < rxnCount; r++) {
+            variants.add(new Variant("-R" + r, new int[]{r}, new int[0]));
+            for (int s = r + 1; s < rxnCount; s++) {
+                variants.add(new Variant("-R" + r + " -R" + s, new int[]{r, s}, new int[0]));
+            }
+        }
+        return scan(path, new ArrayList<>(), variants);
+    }
+
+    /**
+     * Scans the replacement of each reaction with each of the candidates,
+     * which must be over the pathway's chemicals
+     */
+    public KnockoutTable runReplacements(Pathway path, List<Rxn> candidates) throws Exception {
+        int rxnCount = path.getReactions().size();
+        List<Variant> variants = new ArrayList<>();
+        for (int r = 0; r < rxnCount; r++) {
+            for (int c = 0; c < candidates.size(); c++) {
+                variants.add(new Variant("-R" + r + " +C" + c, new int[]{r}, new int[]{rxnCount + c}));
+            }
+        }
+        return scan(path, candidates, variants);
+    }
+
+    private KnockoutTable scan(Pathway path, List<Rxn> candidates, List<Variant> variants) throws Exception {
+        //Add the candidates to the pathway, checking they only use its chemicals
+        List<Rxn> rxns = new ArrayList<>(path.getReactions());
+        for (Rxn rxn : candidates) {
+            List<Chem> chems = new ArrayList<>(rxn.getSubstrates().keySet());
+            chems.addAll(rxn.getProducts().keySet());
+            for (Chem achem : chems) {
+                if (path.getChemicals().get(achem.getName()) == null) {
+                    System.err.println("Replacement uses a chemical not in the pathway: " + achem.getName());
+                    throw new Exception();
+                }
+            }
+            rxns.add(rxn);
+        }
+        Pathway extended = new Pathway(path.getName(), path.getInputs(), path.getOutputs(), rxns, path.getChemicals());
+        CompiledPathway compiled = CompiledPathway.compile(extended, profile.getCofactors());
+
+        //Solve the base pathway, with the candidates switched off
+        FluxBalanceAnalysis base = new FluxBalanceAnalysis(compiled);
+        int rxnCount = path.getReactions().size();
+        for (int c = rxnCount; c < rxns.size(); c++) {
+            base.setReactionBounds(c, 0, 0);
+        }
+        FluxSolution baseSol = base.run();
+
+        //Map each tracked cofactor to a column
+        List<String> tracked = profile.getTracked();
+        Map<Integer, Integer> chemToCol = new HashMap<>();
+        for (int chem = 0; chem < compiled.getChemCount(); chem++) {
+            int col = tracked.indexOf(compiled.getChem(chem).getName());
+            if (col >= 0) {
+                chemToCol.put(chem, col);
+            }
+        }
+
+        int width = tracked.size() + 1;
+        int rows = variants.size() + 1;
+        double[] values = new double[rows * width];
+        String[] status = new String[rows];
+        record(baseSol, chemToCol, values, status, 0, width);
+
+        //Solve runs of neighbouring variants in parallel, each from its own copy of the base
+        int runs = Math.max(1, Math.min(variants.size(), RUNS_PER_CORE * Runtime.getRuntime().availableProcessors()));
+        IntStream.range(0, runs).parallel().forEach(run -> {
+            FluxBalanceAnalysis fba = base.copy();
+            int from = (int) ((long) variants.size() * run / runs);
+            int to = (int) ((long) variants.size() * (run + 1) / runs);
+            for (int v = from; v < to; v++) {
+                Variant variant = variants.get(v);
+                try {
+                    double[][] saved = apply(fba, variant);
+                    FluxSolution sol = fba.run();
+                    record(sol, chemToCol, values, status, v + 1, width);
+                    restore(fba, variant, saved);
+                } catch (Exception err) {
+                    status[v + 1] = "ERROR";
+                    fba = base.copy();
+                }
+            }
+        });
+
+        List<String> labels = new ArrayList<>();
+        labels.add("base");
+        for (Variant variant : variants) {
+            labels.add(variant.label);
+        }
+        return new KnockoutTable(path.getName(), labels, tracked, values, status);
+    }
+
+    /**
+     * Applies a variant's bounds, returning the bounds it replaced
+     */
+    private static double[][] apply(FluxBalanceAnalysis fba, Variant variant) throws Exception {
+        double[][] saved = new double[variant.knockouts.length + variant.additions.length][];
+        int k = 0;
+        for (int r : variant.knockouts) {
+            saved[k++] = new double[]{fba.getLowerBound(r), fba.getUpperBound(r)};
+            fba.setReactionBounds(r, 0, 0);
+        }
+        for (int r : variant.additions) {
+            saved[k++] = new double[]{fba.getLowerBound(r), fba.getUpperBound(r)};
+            fba.setReactionBounds(r, 0, FluxBalanceAnalysis.DEFAULT_MAX_FLUX);
+        }
+        return saved;
+    }
+
+    private static void restore(FluxBalanceAnalysis fba, Variant variant, double[][] saved) throws Exception {
+        int k = 0;
+        for (int r : variant.knockouts) {
+            fba.setReactionBounds(r, saved[k][0], saved[k][1]);
+            k++;
+        }
+        for (int r : variant.additions) {
+            fba.setReactionBounds(r, saved[k][0], saved[k][1]);
+            k++;
+        }
+    }
+
+    /**
+     * Writes the output flux and cofactor usage per unit output to a row
+     */
+    private static void record(FluxSolution sol, Map<Integer, Integer> chemToCol, double[] values, String[] status, int row, int width) {
+        double output = sol.getObjective();
+        if (sol.getStatus() != FluxSolution.Status.OPTIMAL || output <= BoundedSimplex.FEASIBILITY_TOL) {
+            status[row] = sol.getStatus() == FluxSolution.Status.OPTIMAL ? "NO_FLUX" : sol.getStatus().name();
+            return;
+        }
+        status[row] = sol.getStatus().name();
+        values[row * width] = output;
+        for (Map.Entry<Integer, Integer> entry : chemToCol.entrySet()) {
+            values[row * width + entry.getValue() + 1] += sol.getBalance(entry.getKey()) / output;
+        }
+    }
+
+    /**
+     * A set of reactions to knock out and candidates to release
+     */
+    private static final class Variant {
+        private final String label;
+        private final int[] knockouts;
+        private final int[] additions;
+
+        Variant(String label, int[] knockouts, int[] additions) {
+            this.label = label;
+            this.knockouts = knockouts;
+            this.additions = additions;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String file = args.length > 0 ? args[0] : "data/chorismate.txt";
+        Pathway path = new PathwayParser().run(FileUtils.readFile(file));
+
+        KnockoutScan scan = new KnockoutScan();
+        long start = System.currentTimeMillis();
+        KnockoutTable table = scan.runPairs(path);
+        System.out.println(table);
+        System.out.println(table.getVariants().size() + " variants in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -0,0 +1,141 @@
+package org.ucb.pathwayanalysis;
+
+import org.ucb.act.utils.Metrics;
+
+/**
+ * A dense LU factorization with scaled partial pivoting, P*A = L*U.  L
+ * (unit diagonal, not stored) and U share one n x n array, a copy of the
+ * matrix it was built from.  Each solve is a forward and a back
+ * substitution, O(n^2), with no explicit inverse.
+ *
+ * @author J. Christopher Anderson
+ */
+public class LUDecomposition implements Factorization {
+
+    private static final Metrics.Counter SWAPS = Metrics.getShared().counter("lu.swaps");
+
+    private final double[][] lu;
+
+    //perm[i] is the row of the original matrix that ended up in row i
+    private final int[] perm;
+
+    private LUDecomposition(double[][] lu, int[] perm) {
+        this.lu = lu;
+        this.perm = perm;
+    }
+
+    /**
+     * Factors a square matrix, which is not modified
+     */
+    public static LUDecomposition factor(double[][] mat) throws Exception {
+        int n = mat.length;
+        double[][] a = new double[n][];
+        for (int i = 0; i < n; i++) {
+            if (mat[i].length != n) {
+                throw new Exception("LUDecomposition requires a square matrix");
+            }
+            a[i] = mat[i].clone();
+        }
+
+        int[] perm = new int[n];
+        for (int i = 0; i < n; ++i) {
+            perm[i] = i;
+        }
+
+        // Find the rescaling factors, one from each row
+        double[] c = new double[n];
+        for (int i = 0; i < n; ++i) {
+            double c1 = 0;
+            for (int j = 0; j < n; ++j) {
+                c1 = Math.max(c1, Math.abs(a[i][j]));
+            }
+            c[i] = c1;
+        }
+
+        int swaps = 0;
+        for (int j = 0; j < n; ++j) {
+            // Search the pivoting element from each column
+            int k = -1;
+            double pi1 = 0;
+            for (int i = j; i < n; ++i) {
+                if (c[i] == 0) {
+                    continue;
+                }
+                double pi0 = Math.abs(a[i][j]) / c[i];
+                if (pi0 > pi1) {
+                    pi1 = pi0;
+                    k = i;
+                }
+            }
+            if (k < 0) {
+                throw new Exception("Matrix is singular at column " + j);
+            }
+
+            // Interchange rows according to the pivoting order
+            if (k != j) {
+                swaps++;
+            }
+            double[] rtmp = a[j];
+            a[j] = a[k];
+            a[k] = rtmp;
+            int itmp = perm[j];
+            perm[j] = perm[k];
+            perm[k] = itmp;
+            double ctmp = c[j];
+            c[j] = c[k];
+            c[k] = ctmp;
+
+            double[] pivotRow = a[j];
+            double pivot = pivotRow[j];
+            for (int i = j + 1; i < n; ++i) {
+                double[] row = a[i];
+                double pj = row[j] / pivot;
+                if (pj == 0) {
+                    continue;
+                }
+
+                // Record pivoting ratios below the diagonal
+                row[j] = pj;
+
+                // Modify other elements accordingly
+                for (int l = j + 1; l < n; ++l) {
+                    row[l] -= pj * pivotRow[l];
+                }
+            }
+        }
+        SWAPS.add(swaps);
+        return new LUDecomposition(a, perm);
+    }
+
+    @Override
+    public int size() {
+        return perm.length;
+    }
+
+    @Override
+    public double[] solve(double[] b) {
+        int n = perm.length;
+        double[] x = new double[n];
+
+        // Forward substitution with the unit lower triangle
+        for (int i = 0; i < n; ++i) {
+            double sum = b[perm[i]];
+            double[] row = lu[i];
+            for (int k = 0; k < i; ++k) {
+                sum -= row[k] * x[k];
+            }
+            x[i] = sum;
+        }
+
+        // Backward substitution with the upper triangle
+        for (int i = n - 1; i >= 0; --i) {
+            double sum = x[i];
+            double[] row = lu[i];
+            for (int k = i + 1; k < n; ++k) {
+                sum -= row[k] * x[k];
+            }
+            x[i] = sum / row[i];
+        }
+        return x;
+    }
+}
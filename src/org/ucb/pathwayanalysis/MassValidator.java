@@ -1,79 +1,353 @@
 package org.ucb.pathwayanalysis;
 
 import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.CompiledPathway;
+import org.ucb.pathwayanalysis.model.CompiledRxn;
+import org.ucb.pathwayanalysis.model.Formula;
+import org.ucb.pathwayanalysis.model.MolProperties;
 import org.ucb.pathwayanalysis.model.Rxn;
 import org.ucb.pathwayanalysis.model.Pathway;
-import chemaxon.formats.MolImporter;
-import chemaxon.struc.Molecule;
-import org.ucb.act.utils.ChemAxonUtils;
+import org.ucb.pathwayanalysis.model.RxnBalance;
+import org.ucb.pathwayanalysis.model.ValidationReport;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import org.ucb.act.utils.FileUtils;
+import org.ucb.act.utils.Metrics;
 
 /**
  * A Function that validates each reaction in a pathway for mass balance.
  * This is necessary to validate the stoichiometric coefficients on
  * each reaction.  This returns true if all reactions in the pathway
- * are OK.
+ * are OK.  Alternatively, report() checks every reaction in parallel and
+ * returns the balance of each one, so all failures are found in one pass.
+ * 
+ * Where the composition of every chemical in a reaction is known, each
+ * element and the charge must balance too, so that swapping atoms of equal
+ * total mass is not missed.
+ * 
+ * Properties are looked up through a MolPropertyCache, so each distinct
+ * InChI is only read once no matter how many reactions or pathways it
+ * appears in.
  * 
  * @author J. Christopher Anderson
  */
 public class MassValidator {
     
+    private static final double TOLERANCE = 0.0001;
+    
+    //Below this many reactions a BalanceTask stops splitting
+    private static final int SPLIT_THRESHOLD = 8;
+    
+    private static final Metrics.Timer VALIDATE = Metrics.getShared().timer("validate");
+    
+    private final MolPropertyCache cache;
+    
+    public MassValidator() {
+        this(MolPropertyCache.getShared());
+    }
+    
+    public MassValidator(MolPropertyCache cache) {
+        this.cache = cache;
+    }
+    
     public boolean run(Pathway path) throws Exception {
-        //Are all the reactions balanced?
-        for(Rxn rxn : path.getReactions()) {
-            //Add up masses of substrates
-            double subsMw = 0.0;
-            for(Chem achem : rxn.getSubstrates().keySet()) {
-                int stoich = rxn.getSubstrates().get(achem);
-                Molecule mol = null;
-                try {
-                    mol = MolImporter.importMol(achem.getInchi());
-                } catch(Exception err) {
-                    System.out.println("Unable to parse:");
-                    System.out.println(achem.getName());
-                    System.out.println(achem.getInchi());
+        Metrics.Stage stage = VALIDATE.start();
+        try {
+            //Are all the reactions balanced?
+            for(int i=0; i<path.getReactions().size(); i++) {
+                Rxn rxn = path.getReactions().get(i);
+                RxnBalance bal = balance(i, rxn);
+                if(!bal.isBalanced()) {
+                    System.out.println("Balance error for\n" + rxn.toString());
+                    System.out.println("\toff by " + bal.getDelta());
+                    if(bal.getElementDelta() != null) {
+                        System.out.println("\telements off by " + bal.getElementDelta() + ", charge off by " + bal.getChargeDelta());
+                    }
+                    return false;
                 }
-                subsMw += stoich*mol.getExactMass();
             }
-            
-            //Add up masses of products
-            double pdtsMw = 0.0;
-            for (Chem achem : rxn.getProducts().keySet()) {
-                int stoich = rxn.getProducts().get(achem);
-                Molecule mol = null;
-                try {
-                    mol = MolImporter.importMol(achem.getInchi());
-                } catch(Exception err) {
-                    System.out.println("Unable to parse:");
-                    System.out.println(achem.getName());
-                    System.out.println(achem.getInchi());
-                    throw err;
+
+            //If it survived all that, return true
+            return true;
+        } finally {
+            stage.end(path.getReactions().size());
+        }
+    }
+    
+    /**
+     * Validates a compiled pathway, looking up each chemical's properties
+     * once and then summing over the reactions' coefficient arrays.
+     */
+    public boolean run(CompiledPathway path) throws Exception {
+        Metrics.Stage stage = VALIDATE.start();
+        try {
+            return validate(path);
+        } finally {
+            stage.end(path.getRxnCount());
+        }
+    }
+    
+    private boolean validate(CompiledPathway path) throws Exception {
+        //Look up each chemical once, numbering the elements seen in the pathway
+        int chemCount = path.getChemCount();
+        double[] masses = new double[chemCount];
+        Formula[] compositions = new Formula[chemCount];
+        Map<String, Integer> elementToIndex = new HashMap<>();
+        for(int i=0; i<chemCount; i++) {
+            MolProperties props = properties(path.getChem(i));
+            masses[i] = props.getExactMass();
+            compositions[i] = props.getComposition();
+            if(compositions[i] != null) {
+                for(String element : compositions[i].getCounts().keySet()) {
+                    elementToIndex.putIfAbsent(element, elementToIndex.size());
                 }
-                pdtsMw += stoich*mol.getExactMass();
             }
-            
-            if(Math.abs(subsMw - pdtsMw) > 0.0001) {
-                System.out.println("Balance error for\n" + rxn.toString());
-                double dif = subsMw - pdtsMw;
+        }
+        
+        //Each chemical's atoms of every element, then its charge, in one row
+        int width = elementToIndex.size() + 1;
+        int[] atoms = new int[chemCount * width];
+        for(int i=0; i<chemCount; i++) {
+            if(compositions[i] == null) {
+                continue;
+            }
+            for(Map.Entry<String, Integer> entry : compositions[i].getCounts().entrySet()) {
+                atoms[i * width + elementToIndex.get(entry.getKey())] = entry.getValue();
+            }
+            atoms[i * width + width - 1] = compositions[i].getCharge();
+        }
+        
+        int[] net = new int[width];
+        for(int r=0; r<path.getRxnCount(); r++) {
+            CompiledRxn rxn = path.getRxn(r);
+            double dif = 0.0;
+            Arrays.fill(net, 0);
+            boolean known = true;
+            for(int k=0; k<rxn.size(); k++) {
+                int chem = rxn.getChem(k);
+                int coeff = rxn.getCoeff(k);
+                dif -= coeff * masses[chem];
+                if(compositions[chem] == null) {
+                    known = false;
+                } else {
+                    for(int e=0; e<width; e++) {
+                        net[e] -= coeff * atoms[chem * width + e];
+                    }
+                }
+            }
+            if(Math.abs(dif) > TOLERANCE) {
+                System.out.println("Balance error for reaction " + r);
                 System.out.println("\toff by " + dif);
                 return false;
             }
+            if(known && !isZero(net)) {
+                Map<String, Integer> elements = new TreeMap<>();
+                for(Map.Entry<String, Integer> entry : elementToIndex.entrySet()) {
+                    if(net[entry.getValue()] != 0) {
+                        elements.put(entry.getKey(), net[entry.getValue()]);
+                    }
+                }
+                System.out.println("Balance error for reaction " + r);
+                System.out.println("\telements off by " + elements + ", charge off by " + net[width - 1]);
+                return false;
+            }
         }
-        
-        //If it survived all that, return true
         return true;
     }
     
-    public static void main(String[] args) throws Exception {
-        ChemAxonUtils.license();
+    private static boolean isZero(int[] values) {
+        for(int value : values) {
+            if(value != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Checks every reaction of the pathway, in parallel, without stopping at
+     * the first imbalance.
+     */
+    public ValidationReport report(Pathway path) throws Exception {
+        List<Pathway> paths = new ArrayList<>();
+        paths.add(path);
+        return reportAll(paths).get(0);
+    }
+    
+    /**
+     * Checks every reaction of every pathway in a single fork-join pass, so
+     * a library of small pathways still keeps all cores busy.  The reports
+     * are returned in the same order as the pathways.
+     */
+    public List<ValidationReport> reportAll(List<Pathway> paths) throws Exception {
+        //Flatten all the reactions into one array
+        int total = 0;
+        for(Pathway path : paths) {
+            total += path.getReactions().size();
+        }
+        Rxn[] rxns = new Rxn[total];
+        int[] indices = new int[total];
+        int pos = 0;
+        for(Pathway path : paths) {
+            for(int i=0; i<path.getReactions().size(); i++) {
+                rxns[pos] = path.getReactions().get(i);
+                indices[pos] = i;
+                pos++;
+            }
+        }
+        
+        //Balance them all in parallel
+        RxnBalance[] balances = new RxnBalance[total];
+        Metrics.Stage stage = VALIDATE.start();
+        try {
+            ForkJoinPool.commonPool().invoke(new BalanceTask(rxns, indices, balances, 0, total));
+        } catch(BalanceException err) {
+            throw (Exception) err.getCause();
+        } finally {
+            stage.end(total);
+        }
+        
+        //Regroup the results by pathway
+        List<ValidationReport> out = new ArrayList<>();
+        pos = 0;
+        for(Pathway path : paths) {
+            int count = path.getReactions().size();
+            List<RxnBalance> pathBalances = new ArrayList<>(Arrays.asList(balances).subList(pos, pos + count));
+            out.add(new ValidationReport(path, pathBalances));
+            pos += count;
+        }
+        return out;
+    }
+    
+    private RxnBalance balance(int index, Rxn rxn) throws Exception {
+        Map<String, Integer> elements = new TreeMap<>();
+        int charge = 0;
+        boolean known = true;
+        
+        //Add up masses of substrates
+        double subsMw = 0.0;
+        for(Chem achem : rxn.getSubstrates().keySet()) {
+            int stoich = rxn.getSubstrates().get(achem);
+            MolProperties props = properties(achem);
+            subsMw += stoich*props.getExactMass();
+            if(props.getComposition() == null) {
+                known = false;
+            } else {
+                charge += tally(elements, props.getComposition(), stoich);
+            }
+        }
+
+        //Add up masses of products
+        double pdtsMw = 0.0;
+        for (Chem achem : rxn.getProducts().keySet()) {
+            int stoich = rxn.getProducts().get(achem);
+            MolProperties props = properties(achem);
+            pdtsMw += stoich*props.getExactMass();
+            if(props.getComposition() == null) {
+                known = false;
+            } else {
+                charge += tally(elements, props.getComposition(), -stoich);
+            }
+        }
+
+        boolean balanced = Math.abs(subsMw - pdtsMw) <= TOLERANCE;
+        if(!known) {
+            return new RxnBalance(index, rxn, subsMw, pdtsMw, balanced);
+        }
+        balanced &= elements.isEmpty() && charge == 0;
+        return new RxnBalance(index, rxn, subsMw, pdtsMw, elements, charge, balanced);
+    }
+    
+    /**
+     * Adds a multiple of a composition's atoms to a running total, dropping
+     * elements that come to zero
+     * @return the multiple of its charge
+     */
+    private static int tally(Map<String, Integer> elements, Formula composition, int multiple) {
+        for(Map.Entry<String, Integer> entry : composition.getCounts().entrySet()) {
+            int count = elements.getOrDefault(entry.getKey(), 0) + multiple * entry.getValue();
+            if(count == 0) {
+                elements.remove(entry.getKey());
+            } else {
+                elements.put(entry.getKey(), count);
+            }
+        }
+        return multiple * composition.getCharge();
+    }
+    
+    private MolProperties properties(Chem achem) throws Exception {
+        try {
+            return cache.get(achem);
+        } catch(Exception err) {
+            System.out.println("Unable to parse:");
+            System.out.println(achem.getName());
+            System.out.println(achem.getInchi());
+            throw err;
+        }
+    }
+    
+    /**
+     * Carries a checked exception out of a BalanceTask
+     */
+    private static class BalanceException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        
+        BalanceException(Exception cause) {
+            super(cause);
+        }
+    }
+    
+    private class BalanceTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
         
+        private final Rxn[] rxns;
+        private final int[] indices;
+        private final RxnBalance[] out;
+        private final int from;
+        private final int to;
+        
+        BalanceTask(Rxn[] rxns, int[] indices, RxnBalance[] out, int from, int to) {
+            this.rxns = rxns;
+            this.indices = indices;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute() {
+            if(to - from <= SPLIT_THRESHOLD) {
+                for(int i=from; i<to; i++) {
+                    try {
+                        out[i] = balance(indices[i], rxns[i]);
+                    } catch(Exception err) {
+                        throw new BalanceException(err);
+                    }
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BalanceTask(rxns, indices, out, from, mid),
+                    new BalanceTask(rxns, indices, out, mid, to));
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
         PathwayParser parser = new PathwayParser();
         String data = FileUtils.readFile("/Users/jca20n/TerminalOlefins/data/pimar.txt");
         Pathway path = parser.run(data);
         
-        //Test validation
+        //Test validation, reusing any masses saved by a previous run
+        MolPropertyCache.getShared().load("mol_cache.txt");
         MassValidator validator = new MassValidator();
         boolean result = validator.run(path);
         System.out.println(result);
+        MolPropertyCache.getShared().save("mol_cache.txt");
     }
 }
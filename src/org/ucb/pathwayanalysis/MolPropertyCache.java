@@ -0,0 +1,182 @@
+package org.ucb.pathwayanalysis;
+
+import chemaxon.formats.MolImporter;
+import chemaxon.struc.Molecule;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.ucb.act.utils.FileUtils;
+import org.ucb.act.utils.Metrics;
+import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.Formula;
+import org.ucb.pathwayanalysis.model.MolProperties;
+
+/**
+ * A bounded, thread-safe cache of molecular properties keyed by InChI.
+ * Importing a molecule through ChemAxon is by far the most expensive step
+ * of validation, and the same cofactors (ATP, NAD(P)H, H2O...) appear in
+ * nearly every reaction, so a single instance is shared by default across
+ * all Pathways.  The least recently used entries are dropped once the
+ * capacity is reached.
+ *
+ * Most InChIs are read directly by an InchiFormulaParser, which gives the
+ * mass, formula and charge without ChemAxon or its license; only those it
+ * cannot read, such as isotopically labelled ones, are imported.
+ *
+ * The cache can be saved to and loaded from a tab-separated file so that a
+ * warm run never needs to import anything.
+ *
+ * @author J. Christopher Anderson
+ */
+public class MolPropertyCache {
+
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    private static final MolPropertyCache shared = new MolPropertyCache(DEFAULT_CAPACITY);
+
+    private static final Metrics.Counter HITS = Metrics.getShared().counter("molcache.hits");
+    private static final Metrics.Counter MISSES = Metrics.getShared().counter("molcache.misses");
+    private static final Metrics.Counter IMPORTS = Metrics.getShared().counter("chemaxon.imports");
+    private static final Metrics.Timer IMPORT = Metrics.getShared().timer("import");
+
+    private final int capacity;
+    private final Map<String, MolProperties> inchiToProps;
+    private final InchiFormulaParser parser = new InchiFormulaParser();
+
+    public MolPropertyCache(int capacity) {
+        this.capacity = capacity;
+        this.inchiToProps = new LinkedHashMap<String, MolProperties>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MolProperties> eldest) {
+                return size() > MolPropertyCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the cache shared by all validators that are not given their own
+     */
+    public static MolPropertyCache getShared() {
+        return shared;
+    }
+
+    public MolProperties get(Chem achem) throws Exception {
+        return get(achem.getInchi());
+    }
+
+    /**
+     * Looks up the properties of an InChI, reading them from the InChI or,
+     * failing that, importing it through ChemAxon on a miss.  This happens
+     * outside the lock, so two threads missing on the same InChI at once may
+     * both compute it; the results are identical.
+     */
+    public MolProperties get(String inchi) throws Exception {
+        synchronized (inchiToProps) {
+            MolProperties props = inchiToProps.get(inchi);
+            if (props != null) {
+                HITS.increment();
+                return props;
+            }
+        }
+        MISSES.increment();
+
+        MolProperties props;
+        try {
+            props = parser.run(inchi);
+        } catch (Exception err) {
+            IMPORTS.increment();
+            Metrics.Stage stage = IMPORT.start();
+            try {
+                Molecule mol = MolImporter.importMol(inchi);
+                props = new MolProperties(mol.getExactMass(), mol.getFormula());
+            } finally {
+                stage.end(1);
+            }
+        }
+
+        synchronized (inchiToProps) {
+            inchiToProps.put(inchi, props);
+        }
+        return props;
+    }
+
+    /**
+     * Adds properties computed elsewhere, such as those recorded in a
+     * PathwayLibrary
+     */
+    public void put(String inchi, MolProperties props) {
+        synchronized (inchiToProps) {
+            inchiToProps.put(inchi, props);
+        }
+    }
+
+    public int size() {
+        synchronized (inchiToProps) {
+            return inchiToProps.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (inchiToProps) {
+            inchiToProps.clear();
+        }
+    }
+
+    /**
+     * Adds the entries of a file written by save() to the cache.  A missing
+     * file is treated as an empty cache.
+     */
+    public void load(String path) throws Exception {
+        if (!new File(path).isFile()) {
+            return;
+        }
+
+        String data = FileUtils.readFile(path);
+        String[] lines = data.split("\\r|\\r?\\n");
+        synchronized (inchiToProps) {
+            for (String line : lines) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] tabs = line.split("\t");
+                if (tabs.length != 3 && tabs.length != 4) {
+                    System.err.println("Error parsing cache entry:\n" + line);
+                    throw new Exception();
+                }
+                double mass = Double.parseDouble(tabs[1]);
+                if (tabs.length == 4) {
+                    Formula composition = parser.parseFormula(tabs[2], Integer.parseInt(tabs[3]));
+                    inchiToProps.put(tabs[0], new MolProperties(mass, tabs[2], composition));
+                } else {
+                    inchiToProps.put(tabs[0], new MolProperties(mass, tabs[2]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the current entries, least recently used first, as lines of
+     * InChI, exact mass, formula and, if known, charge separated by tabs.
+     */
+    public void save(String path) {
+        List<String> lines = new ArrayList<>();
+        synchronized (inchiToProps) {
+            for (Map.Entry<String, MolProperties> entry : inchiToProps.entrySet()) {
+                MolProperties props = entry.getValue();
+                String line = entry.getKey() + "\t" + props.getExactMass() + "\t" + props.getFormula();
+                if (props.getComposition() != null) {
+                    line += "\t" + props.getComposition().getCharge();
+                }
+                lines.add(line);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append("\n");
+        }
+        FileUtils.writeFile(sb.toString(), path);
+    }
+}
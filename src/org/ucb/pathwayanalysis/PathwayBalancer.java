@@ -1,204 +1,260 @@
 package org.ucb.pathwayanalysis;
 
 import org.ucb.pathwayanalysis.model.Chem;
-import org.ucb.pathwayanalysis.model.Rxn;
+import org.ucb.pathwayanalysis.model.CompiledPathway;
+import org.ucb.pathwayanalysis.model.CompiledRxn;
+import org.ucb.pathwayanalysis.model.FluxSolution;
 import org.ucb.pathwayanalysis.model.Pathway;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import org.ucb.act.utils.ChemAxonUtils;
 import org.ucb.act.utils.FileUtils;
+import org.ucb.act.utils.Metrics;
 
 /**
  * A Function that inputs a Pathway, performs flux balance analysis, and outputs
  * the flux vector. You may need to add the names of additional cofactors
- * included in your pathway.
+ * included in your pathway, by passing in a CofactorProfile.
+ *
+ * By default the reaction coefficients are solved exactly in integers.  Very
+ * large networks should use Method.SPARSE, which never builds the dense
+ * n x n matrix.  Pathways whose reaction count differs from their
+ * intermediate count, such as branched ones, have no square system to solve
+ * and should use Method.LEAST_SQUARES or Method.FBA.
+ *
+ * A balancer never modifies the Pathway it is given and keeps all of its
+ * working state local to each call, so one instance can balance shared
+ * Pathways from many threads at once.
  *
  * @author J. Christopher Anderson
  */
 public class PathwayBalancer {
 
+    /**
+     * How the square system is solved for the reaction coefficients
+     */
+    public enum Method {
+        /**
+         * Exact fraction-free elimination, touching only the rows that hold
+         * each pivot column, giving the smallest whole-number coefficients
+         * directly
+         */
+        EXACT,
+        /**
+         * Dense LU in floating point, then a search for a small multiplier
+         * that makes the coefficients whole
+         */
+        DENSE,
+        /**
+         * As DENSE but with a sparse LU, for large networks where a dense
+         * n x n matrix is too big
+         */
+        SPARSE,
+        /**
+         * Linear-programming flux balance analysis, maximizing the output
+         * flux, with the optimal fluxes scaled to the smallest whole numbers
+         */
+        FBA,
+        /**
+         * Rank-revealing QR of the intermediates x reactions matrix as it
+         * is, without padding it square, failing as soon as the reactions
+         * are found to be dependent or the intermediates cannot all balance
+         */
+        LEAST_SQUARES
+    }
+
+    //The largest multiplier tried when converting fluxes to integers
+    private static final int MAX_MULTIPLIER = 20;
+
+    //The largest residual of a least-squares solution taken as balanced
+    private static final double RESIDUAL_TOL = 1e-6;
+
+    private static final Metrics.Timer BALANCE = Metrics.getShared().timer("balance");
+    private static final Metrics.Timer MATRIX = Metrics.getShared().timer("matrix");
+    private static final Metrics.Timer SOLVE = Metrics.getShared().timer("solve");
+    private static final Metrics.Histogram DIMENSION = Metrics.getShared().histogram("matrix.dimension");
+    private static final Metrics.Histogram NON_ZEROS = Metrics.getShared().histogram("matrix.nonzeros");
+
     private final Set<String> cofactors;
+    private final Method method;
 
     public PathwayBalancer() {
-        //A universal list of standard-named cofactors, you may need to add more
-        cofactors = new HashSet<>();
-        cofactors.add("ATP");
-        cofactors.add("ADP");
-        cofactors.add("H+");
-        cofactors.add("H2O");
-        cofactors.add("NAD+");
-        cofactors.add("NADH");
-        cofactors.add("NADP+");
-        cofactors.add("NADPH");
-        cofactors.add("Pi");
-        cofactors.add("FAD");
-        cofactors.add("FADH2");
-        cofactors.add("CO2");
-        cofactors.add("CoA");
+        this(CofactorProfile.getDefault(), Method.EXACT);
     }
 
-    public Map<Chem, Integer> run(Pathway path) throws Exception {
-        //Pull out all non-cofactor, non input chems and fix them to an index
-        Map<Chem, Integer> intermedToIndex = new HashMap<>();
-        int chemCount = 0;
+    public PathwayBalancer(Method method) {
+        this(CofactorProfile.getDefault(), method);
+    }
 
-        for (Rxn rxn : path.getReactions()) {
-            Map<Chem, Integer> allChems = rxn.getSubstrates();
-            Map<Chem, Integer> pdtToStoichiometry = rxn.getProducts();
+    public PathwayBalancer(CofactorProfile profile, Method method) {
+        this.cofactors = profile.getCofactors();
+        this.method = method;
+    }
 
-            //Add all the products to allChems (which already has the substrates)
-            for (Chem achem : pdtToStoichiometry.keySet()) {
-                allChems.put(achem, 0);
-            }
+    public Map<Chem, Integer> run(Pathway path) throws Exception {
+        CompiledPathway compiled = CompiledPathway.compile(path, cofactors);
+        int[] net = run(compiled);
 
-            //For all chems (pdts or subs)
-            for (Chem achem : allChems.keySet()) {
-                //Ignore the cofactors
-                if (cofactors.contains(achem.getName())) {
-                    continue;
-                }
+        //Construct the Map that will be returned by this method, without the zero balances
+        Map<Chem, Integer> bal = new HashMap<>();
+        for (int i = 0; i < net.length; i++) {
+            if (net[i] != 0) {
+                bal.put(compiled.getChem(i), net[i]);
+            }
+        }
+        return bal;
+    }
 
-                //Ignore the inputs
-                if (path.getInputs().contains(achem)) {
-                    continue;
-                }
+    /**
+     * Balances a compiled pathway, whose cofactor mask is used in place of
+     * this balancer's cofactor names.
+     *
+     * @return the net balance of each of the pathway's chemicals, by index
+     */
+    public int[] run(CompiledPathway path) throws Exception {
+        Metrics.Stage stage = BALANCE.start();
+        try {
+            int[] rxnCoeffs;
+            if (method == Method.FBA) {
+                rxnCoeffs = solveFluxBalance(path);
+            } else if (method == Method.LEAST_SQUARES) {
+                rxnCoeffs = solveLeastSquares(path);
+            } else {
+                rxnCoeffs = solveSquare(path);
+            }
 
-                //If it's already in the list, ignore it
-                if (!intermedToIndex.containsKey(achem)) {
-                    intermedToIndex.put(achem, chemCount);
-                    chemCount++;
+            //Calculate the new balance
+            int[] bal = new int[path.getChemCount()];
+            for (int r = 0; r < path.getRxnCount(); r++) {
+                CompiledRxn rxn = path.getRxn(r);
+                int rxnCoeff = rxnCoeffs[r];
+                for (int k = 0; k < rxn.size(); k++) {
+                    bal[rxn.getChem(k)] += rxn.getCoeff(k) * rxnCoeff;
                 }
             }
+            return bal;
+        } finally {
+            stage.end(path.getRxnCount());
         }
+    }
+
+    private int[] solveSquare(CompiledPathway path) throws Exception {
+        //Build the stoichiometric matrix of the intermediates
+        Metrics.Stage build = MATRIX.start();
+        StoichiometricMatrix matrix = new StoichiometricMatrix(path);
 
         //See which is bigger, chemCount or rxnCount
-        int rxnCount = path.getReactions().size();
-        int n = Math.max(rxnCount, chemCount);
-
-        //Construct the matrix and objective function, and zero all out
-        double[][] stoichMatrix = new double[n][n];
-        double[] objectiveFunc = new double[n];
-        for (int i = 0; i < n; i++) {
-            objectiveFunc[i] = 0;
-            for (int j = 0; j < n; j++) {
-                stoichMatrix[i][j] = 0;
-            }
-        }
+        int n = Math.max(matrix.getRxnCount(), matrix.getChemCount());
 
         //Populate the indices of the objective function that are outputs as 1
-        for (Chem outputChem : path.getOutputs()) {
-            int index = intermedToIndex.get(outputChem);
-            objectiveFunc[index] = 1;
-        }
-
-        //Populate the stoich matrix with all rxn stoich indices
-        for (int j = 0; j < path.getReactions().size(); j++) {
-            Rxn rxn = path.getReactions().get(j);
-
-            //Put in each substrate
-            for (Chem achem : rxn.getSubstrates().keySet()) {
-                int stoich = rxn.getSubstrates().get(achem);
-                Integer index = intermedToIndex.get(achem);
-                if (index == null) {
-                    continue;
-                }
-                stoichMatrix[index][j] = -1 * stoich;
-            }
+        double[] objectiveFunc = matrix.getObjective(n);
+        build.end(n);
+        DIMENSION.record(n);
+        NON_ZEROS.record(matrix.getMatrix().getNonZeros());
 
-            //Put in each product
-            for (Chem achem : rxn.getProducts().keySet()) {
-                int stoich = rxn.getProducts().get(achem);
-                Integer index = intermedToIndex.get(achem);
-                if (index == null) {
-                    continue;
+        //Solve to get integer coefficients on each reaction
+        Metrics.Stage stage = SOLVE.start();
+        try {
+            if (method == Method.EXACT) {
+                ExactSolver solver = new ExactSolver();
+                long[] result = solver.run(matrix.getSquareMatrix(n), objectiveFunc);
+                int[] rxnCoeffs = new int[result.length];
+                for (int i = 0; i < result.length; i++) {
+                    rxnCoeffs[i] = Math.toIntExact(result[i]);
                 }
-                stoichMatrix[index][j] = stoich;
+                return rxnCoeffs;
             }
+            return solveFloating(matrix, n, objectiveFunc);
+        } finally {
+            stage.end(n);
         }
+    }
 
-        //Solve to get coefficients on each reaction
-        SolveLinearEquation sle = new SolveLinearEquation();
-        double[] result = sle.run(stoichMatrix, objectiveFunc);
-
-        //Find the multiplier that converts the coefficients to integers
-        int multiplier = 1;
-        while (true) {
-            double total = 0;
-            for (double coeff : result) {
-                total += coeff * multiplier;
+    private int[] solveLeastSquares(CompiledPathway path) throws Exception {
+        //Build the stoichiometric matrix of the intermediates, as it is
+        Metrics.Stage build = MATRIX.start();
+        StoichiometricMatrix matrix = new StoichiometricMatrix(path);
+        SparseMatrix mat = matrix.getMatrix();
+        double[] objectiveFunc = matrix.getObjective(matrix.getChemCount());
+        build.end(mat.getRows());
+        DIMENSION.record(Math.max(mat.getRows(), mat.getCols()));
+        NON_ZEROS.record(mat.getNonZeros());
+
+        Metrics.Stage stage = SOLVE.start();
+        try {
+            //The factorization stops at the rank, so dependent reactions fail before any solve
+            QRDecomposition qr = QRDecomposition.factor(mat.toDense(0));
+            if (!qr.isFullColumnRank()) {
+                throw new Exception("Reactions of " + path.getName() + " are dependent: rank " + qr.getRank()
+                        + " of " + mat.getCols() + " reactions, condition " + qr.getConditionNumber());
             }
-            double offset = total - Math.floor(total);
-            if (offset < 0.001) {
-                break;
+            double[] result = qr.solve(objectiveFunc);
+
+            //An overdetermined system may have no exact solution
+            double[] residual = mat.multiply(result);
+            double worst = 0;
+            for (int i = 0; i < residual.length; i++) {
+                worst = Math.max(worst, Math.abs(residual[i] - objectiveFunc[i]));
             }
-            multiplier++;
-            if (multiplier > 20) {
-                System.err.println("Unable to resolve solution to integers");
-                throw new Exception();
+            if (worst > RESIDUAL_TOL) {
+                throw new Exception("Intermediates of " + path.getName() + " cannot all balance, off by " + worst);
             }
+            return toWholeNumbers(result, 1);
+        } finally {
+            stage.end(mat.getCols());
         }
+    }
 
-
-        //Reinterpret the coefficients as integers
-        int[] rxnCoeffs = new int[result.length];
-        for (int i = 0; i < rxnCoeffs.length; i++) {
-            rxnCoeffs[i] = 0;
+    private int[] solveFluxBalance(CompiledPathway path) throws Exception {
+        Metrics.Stage stage = SOLVE.start();
+        FluxSolution sol;
+        try {
+            sol = new FluxBalanceAnalysis(path).run();
+        } finally {
+            stage.end(path.getRxnCount());
         }
-        for (int i = 0; i < result.length; i++) {
-            double coeff = result[i];
-            int newcoeff = (int) Math.round(multiplier * coeff);
-            rxnCoeffs[i] = newcoeff;
+        if (sol.getStatus() != FluxSolution.Status.OPTIMAL || sol.getObjective() <= BoundedSimplex.FEASIBILITY_TOL) {
+            throw new Exception("No flux reaches the outputs of " + path.getName() + ": " + sol.getStatus());
         }
-        
-        //Construct the Map that will be returned by this method
-        Map<Chem, Integer> bal = new HashMap<>();
 
-        //Calculate the new balance
-        for (int i = 0; i < path.getReactions().size(); i++) {
-            Rxn rxn = path.getReactions().get(i);
-            int rxnCoeff = rxnCoeffs[i];
-
-            //Handle the substrates
-            for (Chem achem : rxn.getSubstrates().keySet()) {
-                int stoich = rxn.getSubstrates().get(achem);
-                int flux = -1 * stoich * rxnCoeff;
-                Integer existing = bal.get(achem);
-                if (existing == null) {
-                    existing = 0;
-                }
-                existing += flux;
-                bal.put(achem, existing);
-            }
+        //Scale to one unit of output
+        return toWholeNumbers(sol.getFluxes(), sol.getObjective());
+    }
 
-            //Handle the products
-            for (Chem achem : rxn.getProducts().keySet()) {
-                int stoich = rxn.getProducts().get(achem);
-                int flux = stoich * rxnCoeff;
-                Integer existing = bal.get(achem);
-                if (existing == null) {
-                    existing = 0;
-                }
-                existing += flux;
-                bal.put(achem, existing);
+    /**
+     * Finds the multiplier that makes every one of the coefficients, divided
+     * by the scale, whole
+     */
+    private static int[] toWholeNumbers(double[] coeffs, double scale) throws Exception {
+        for (int multiplier = 1; multiplier <= MAX_MULTIPLIER; multiplier++) {
+            int[] rxnCoeffs = new int[coeffs.length];
+            boolean whole = true;
+            for (int r = 0; r < coeffs.length && whole; r++) {
+                double coeff = multiplier * coeffs[r] / scale;
+                rxnCoeffs[r] = (int) Math.round(coeff);
+                whole = Math.abs(coeff - rxnCoeffs[r]) < 0.001;
             }
-        }
-
-        //Delete all the zero balances
-        Set<Chem> tossers = new HashSet<>();
-        for (Chem achem : bal.keySet()) {
-            int val = bal.get(achem);
-            if (val == 0) {
-                tossers.add(achem);
+            if (whole) {
+                return rxnCoeffs;
             }
         }
+        throw new Exception("Unable to resolve solution to integers");
+    }
 
-        for (Chem toss : tossers) {
-            bal.remove(toss);
+    private int[] solveFloating(StoichiometricMatrix matrix, int n, double[] objectiveFunc) throws Exception {
+        //Solve to get coefficients on each reaction
+        Factorization lu;
+        if (method == Method.SPARSE) {
+            lu = SparseLU.factor(matrix.getSquareMatrix(n));
+        } else {
+            SolveLinearEquation sle = new SolveLinearEquation();
+            lu = sle.factor(matrix.getMatrix().toDense(n));
         }
+        double[] result = lu.solve(objectiveFunc);
 
-        return bal;
+        //Find the multiplier that makes every coefficient whole
+        return toWholeNumbers(result, 1);
     }
 
     public static void main(String[] args) throws Exception {
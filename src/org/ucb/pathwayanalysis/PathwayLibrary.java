@@ -0,0 +1,597 @@
+package org.ucb.pathwayanalysis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.ucb.act.utils.FileUtils;
+import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.ChemRegistry;
+import org.ucb.pathwayanalysis.model.CompiledPathway;
+import org.ucb.pathwayanalysis.model.CompiledRxn;
+import org.ucb.pathwayanalysis.model.Formula;
+import org.ucb.pathwayanalysis.model.MolProperties;
+import org.ucb.pathwayanalysis.model.Pathway;
+import org.ucb.pathwayanalysis.model.Rxn;
+
+/**
+ * A library of compiled pathways in one binary file, memory-mapped for
+ * reading, so that a library of any size opens without parsing a line of
+ * text or importing a molecule.  open() only checks the header; each
+ * pathway is read from the mapping when it is asked for.
+ *
+ * The file holds, after a fixed header:
+ *
+ *     the chemical table   one fixed-size record per distinct chemical,
+ *                          with its exact mass and the formula and charge
+ *                          read when the library was written
+ *     the pathway index    the offset of each pathway record
+ *     the pathway records  name, each chemical's table index and local
+ *                          name, the input, output and cofactor bitmasks,
+ *                          and the reactions as int arrays of chemical
+ *                          indices and signed coefficients
+ *     the string pool      every name, InChI and formula once, as a
+ *                          length and UTF-8 bytes
+ *
+ * get() returns a PathwayView that reads straight from the mapping.  It
+ * can be turned into a CompiledPathway for the analyses or back into a
+ * Pathway, and preload() fills a MolPropertyCache from the chemical table
+ * so validating the pathways imports nothing.
+ *
+ * A mapping is limited to 2 GB, and is released by the garbage collector
+ * once the library is no longer referenced.
+ *
+ * @author J. Christopher Anderson
+ */
+public class PathwayLibrary {
+
+    private static final int MAGIC = 0x50574c42;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int CHEM_RECORD_SIZE = 32;
+
+    //Chemical record flags
+    private static final int HAS_MASS = 1;
+    private static final int HAS_COMPOSITION = 2;
+
+    private final ByteBuffer buffer;
+    private final int chemCount;
+    private final int pathwayCount;
+    private final int chemOffset;
+    private final int indexOffset;
+    private final int stringOffset;
+    private final ChemRegistry registry;
+
+    //The interned Chem of each table entry, under its table name, filled in as needed
+    private final AtomicReferenceArray<Chem> chems;
+
+    private PathwayLibrary(ByteBuffer buffer, ChemRegistry registry) throws Exception {
+        this.buffer = buffer;
+        this.registry = registry;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            System.err.println("Not a pathway library");
+            throw new Exception();
+        }
+        if (buffer.getInt(4) != VERSION) {
+            System.err.println("Unsupported pathway library version " + buffer.getInt(4));
+            throw new Exception();
+        }
+        this.chemCount = buffer.getInt(8);
+        this.pathwayCount = buffer.getInt(12);
+        this.chemOffset = buffer.getInt(16);
+        this.indexOffset = buffer.getInt(20);
+        this.stringOffset = buffer.getInt(24);
+        this.chems = new AtomicReferenceArray<>(chemCount);
+    }
+
+    /**
+     * Maps a library file, interning its chemicals in the shared registry
+     */
+    public static PathwayLibrary open(String path) throws Exception {
+        return open(path, ChemRegistry.getShared());
+    }
+
+    public static PathwayLibrary open(String path, ChemRegistry registry) throws Exception {
+        return new PathwayLibrary(FileUtils.mapFile(path), registry);
+    }
+
+    /**
+     * Compiles the pathways with the default cofactors and writes them to
+     * a library file, looking up each distinct chemical's properties in
+     * the shared cache
+     */
+    public static void write(List<Pathway> paths, String path) throws Exception {
+        write(paths, CofactorProfile.getDefault(), MolPropertyCache.getShared(), path);
+    }
+
+    public static void write(List<Pathway> paths, CofactorProfile profile, MolPropertyCache cache, String path) throws Exception {
+        Writer writer = new Writer(cache);
+        for (Pathway apath : paths) {
+            writer.add(apath, CompiledPathway.compile(apath, profile.getCofactors()));
+        }
+        FileUtils.writeBytes(Paths.get(path), writer.toBytes());
+    }
+
+    public int size() {
+        return pathwayCount;
+    }
+
+    public int getChemCount() {
+        return chemCount;
+    }
+
+    public PathwayView get(int index) {
+        if (index < 0 || index >= pathwayCount) {
+            throw new IndexOutOfBoundsException("No pathway " + index + " of " + pathwayCount);
+        }
+        return new PathwayView(buffer.getInt(indexOffset + 4 * index));
+    }
+
+    public String getChemName(int chem) {
+        return string(buffer.getInt(chemRecord(chem)));
+    }
+
+    public String getChemInchi(int chem) {
+        return string(buffer.getInt(chemRecord(chem) + 4));
+    }
+
+    /**
+     * @return the properties recorded for a chemical, or null if they
+     * could not be read when the library was written
+     */
+    public MolProperties getProperties(int chem) throws Exception {
+        int record = chemRecord(chem);
+        int flags = buffer.getInt(record + 16);
+        if ((flags & HAS_MASS) == 0) {
+            return null;
+        }
+        double mass = buffer.getDouble(record + 24);
+        String formula = string(buffer.getInt(record + 8));
+        if ((flags & HAS_COMPOSITION) == 0) {
+            return new MolProperties(mass, formula);
+        }
+        Formula composition = new InchiFormulaParser().parseFormula(formula, buffer.getInt(record + 12));
+        return new MolProperties(mass, formula, composition);
+    }
+
+    /**
+     * Puts the recorded properties of every chemical in a cache
+     */
+    public void preload(MolPropertyCache cache) throws Exception {
+        for (int chem = 0; chem < chemCount; chem++) {
+            MolProperties props = getProperties(chem);
+            if (props != null) {
+                cache.put(getChemInchi(chem), props);
+            }
+        }
+    }
+
+    /**
+     * @return the chemical interned in the registry under its table name
+     */
+    public Chem getChem(int chem) {
+        Chem achem = chems.get(chem);
+        if (achem == null) {
+            achem = registry.intern(getChemName(chem), getChemInchi(chem));
+            chems.set(chem, achem);
+        }
+        return achem;
+    }
+
+    private int chemRecord(int chem) {
+        if (chem < 0 || chem >= chemCount) {
+            throw new IndexOutOfBoundsException("No chemical " + chem + " of " + chemCount);
+        }
+        return chemOffset + CHEM_RECORD_SIZE * chem;
+    }
+
+    private String string(int offset) {
+        if (offset < 0) {
+            return null;
+        }
+        int pos = stringOffset + offset;
+        byte[] bytes = new byte[buffer.getInt(pos)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(pos + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One pathway of the library, read from the mapping on each call
+     */
+    public final class PathwayView {
+        private final int record;
+        private final int chemCount;
+        private final int rxnCount;
+        private final int words;
+        private final int chemIds;
+        private final int chemNames;
+        private final int masks;
+        private final int rxnStarts;
+        private final int entryChems;
+        private final int entryCoeffs;
+
+        private PathwayView(int record) {
+            this.record = record;
+            this.chemCount = buffer.getInt(record + 4);
+            this.rxnCount = buffer.getInt(record + 8);
+            int entries = buffer.getInt(record + 12);
+            this.words = (chemCount + 63) >>> 6;
+            this.chemIds = record + 16;
+            this.chemNames = chemIds + 4 * chemCount;
+            this.masks = chemNames + 4 * chemCount;
+            this.rxnStarts = masks + 8 * 3 * words;
+            this.entryChems = rxnStarts + 4 * (rxnCount + 1);
+            this.entryCoeffs = entryChems + 4 * entries;
+        }
+
+        public String getName() {
+            return string(buffer.getInt(record));
+        }
+
+        public int getChemCount() {
+            return chemCount;
+        }
+
+        /**
+         * @return the index of a chemical in the library's chemical table
+         */
+        public int getLibraryChem(int index) {
+            return buffer.getInt(chemIds + 4 * index);
+        }
+
+        /**
+         * @return the chemical's name in this pathway
+         */
+        public String getChemName(int index) {
+            return string(buffer.getInt(chemNames + 4 * index));
+        }
+
+        public String getChemInchi(int index) {
+            return PathwayLibrary.this.getChemInchi(getLibraryChem(index));
+        }
+
+        public boolean isInput(int index) {
+            return isSet(0, index);
+        }
+
+        public boolean isOutput(int index) {
+            return isSet(1, index);
+        }
+
+        public boolean isCofactor(int index) {
+            return isSet(2, index);
+        }
+
+        public int getRxnCount() {
+            return rxnCount;
+        }
+
+        public RxnView getRxn(int r) {
+            if (r < 0 || r >= rxnCount) {
+                throw new IndexOutOfBoundsException("No reaction " + r + " of " + rxnCount);
+            }
+            return new RxnView(buffer.getInt(rxnStarts + 4 * r), buffer.getInt(rxnStarts + 4 * r + 4));
+        }
+
+        /**
+         * Copies the pathway into a CompiledPathway, with the chemical
+         * numbering and bitmasks it was written with
+         */
+        public CompiledPathway toCompiled() {
+            Chem[] chems = new Chem[chemCount];
+            for (int i = 0; i < chemCount; i++) {
+                //Strings are pooled, so a local name at the table name's offset is the same name
+                int chem = getLibraryChem(i);
+                if (buffer.getInt(chemNames + 4 * i) == buffer.getInt(chemRecord(chem))) {
+                    chems[i] = getChem(chem);
+                } else {
+                    chems[i] = registry.intern(getChemName(i), getChemInchi(i));
+                }
+            }
+            CompiledRxn[] rxns = new CompiledRxn[rxnCount];
+            for (int r = 0; r < rxnCount; r++) {
+                RxnView rxn = getRxn(r);
+                int[] rxnChems = new int[rxn.size()];
+                int[] coeffs = new int[rxn.size()];
+                for (int k = 0; k < rxnChems.length; k++) {
+                    rxnChems[k] = rxn.getChem(k);
+                    coeffs[k] = rxn.getCoeff(k);
+                }
+                rxns[r] = new CompiledRxn(rxnChems, coeffs);
+            }
+            return new CompiledPathway(getName(), chems, rxns, mask(0), mask(1), mask(2));
+        }
+
+        /**
+         * Rebuilds the Pathway that was written
+         */
+        public Pathway toPathway() {
+            CompiledPathway compiled = toCompiled();
+            Map<String, Chem> chemicals = new LinkedHashMap<>();
+            Set<Chem> inputs = new LinkedHashSet<>();
+            Set<Chem> outputs = new LinkedHashSet<>();
+            for (int i = 0; i < chemCount; i++) {
+                Chem achem = compiled.getChem(i);
+                chemicals.put(achem.getName(), achem);
+                if (isInput(i)) {
+                    inputs.add(achem);
+                }
+                if (isOutput(i)) {
+                    outputs.add(achem);
+                }
+            }
+            List<Rxn> reactions = new ArrayList<>();
+            for (int r = 0; r < rxnCount; r++) {
+                CompiledRxn rxn = compiled.getRxn(r);
+                Map<Chem, Integer> substrates = new LinkedHashMap<>();
+                Map<Chem, Integer> products = new LinkedHashMap<>();
+                for (int k = 0; k < rxn.size(); k++) {
+                    Chem achem = compiled.getChem(rxn.getChem(k));
+                    if (rxn.getCoeff(k) < 0) {
+                        substrates.put(achem, -rxn.getCoeff(k));
+                    } else {
+                        products.put(achem, rxn.getCoeff(k));
+                    }
+                }
+                reactions.add(new Rxn(substrates, products));
+            }
+            return new Pathway(getName(), inputs, outputs, reactions, chemicals);
+        }
+
+        private boolean isSet(int mask, int index) {
+            long word = buffer.getLong(masks + 8 * (mask * words + (index >>> 6)));
+            return (word & (1L << index)) != 0;
+        }
+
+        private long[] mask(int mask) {
+            long[] out = new long[words];
+            for (int w = 0; w < words; w++) {
+                out[w] = buffer.getLong(masks + 8 * (mask * words + w));
+            }
+            return out;
+        }
+
+        /**
+         * One reaction of the pathway, as entries of a chemical index and a
+         * coefficient, negative for substrates
+         */
+        public final class RxnView {
+            private final int from;
+            private final int to;
+
+            private RxnView(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            public int size() {
+                return to - from;
+            }
+
+            /**
+             * @return the pathway-local index of the k-th chemical
+             */
+            public int getChem(int k) {
+                return buffer.getInt(entryChems + 4 * (from + k));
+            }
+
+            public int getCoeff(int k) {
+                return buffer.getInt(entryCoeffs + 4 * (from + k));
+            }
+        }
+    }
+
+    /**
+     * Builds the sections of a library file in memory
+     */
+    private static final class Writer {
+        private final MolPropertyCache cache;
+        private final InchiFormulaParser parser = new InchiFormulaParser();
+        private final Map<String, Integer> keyToChem = new HashMap<>();
+        private final Map<String, Integer> stringToOffset = new HashMap<>();
+        private final ByteArrayOutputStream chemBytes = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+        private final DataOutputStream chemOut = new DataOutputStream(chemBytes);
+        private final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+        private final DataOutputStream stringOut = new DataOutputStream(stringBytes);
+        private final List<Integer> recordOffsets = new ArrayList<>();
+
+        Writer(MolPropertyCache cache) {
+            this.cache = cache;
+        }
+
+        void add(Pathway path, CompiledPathway compiled) throws Exception {
+            recordOffsets.add(recordOut.size());
+            int n = compiled.getChemCount();
+            int entries = 0;
+            for (int r = 0; r < compiled.getRxnCount(); r++) {
+                entries += compiled.getRxn(r).size();
+            }
+
+            recordOut.writeInt(string(path.getName()));
+            recordOut.writeInt(n);
+            recordOut.writeInt(compiled.getRxnCount());
+            recordOut.writeInt(entries);
+            for (int i = 0; i < n; i++) {
+                recordOut.writeInt(chem(compiled.getChem(i)));
+            }
+            for (int i = 0; i < n; i++) {
+                recordOut.writeInt(string(compiled.getChem(i).getName()));
+            }
+            for (long[] mask : new long[][] {compiled.getInputMask(), compiled.getOutputMask(), compiled.getCofactorMask()}) {
+                for (long word : mask) {
+                    recordOut.writeLong(word);
+                }
+            }
+            int start = 0;
+            for (int r = 0; r < compiled.getRxnCount(); r++) {
+                recordOut.writeInt(start);
+                start += compiled.getRxn(r).size();
+            }
+            recordOut.writeInt(start);
+            for (int r = 0; r < compiled.getRxnCount(); r++) {
+                CompiledRxn rxn = compiled.getRxn(r);
+                for (int k = 0; k < rxn.size(); k++) {
+                    recordOut.writeInt(rxn.getChem(k));
+                }
+            }
+            for (int r = 0; r < compiled.getRxnCount(); r++) {
+                CompiledRxn rxn = compiled.getRxn(r);
+                for (int k = 0; k < rxn.size(); k++) {
+                    recordOut.writeInt(rxn.getCoeff(k));
+                }
+            }
+        }
+
+        /**
+         * @return the chemical's index in the table, adding it if new
+         */
+        private int chem(Chem achem) throws IOException {
+            Integer index = keyToChem.get(achem.getKey());
+            if (index != null) {
+                return index;
+            }
+            index = keyToChem.size();
+            keyToChem.put(achem.getKey(), index);
+
+            //Chemicals without a readable InChI, as in abstract examples, have no properties
+            MolProperties props = null;
+            if (achem.getInchi() != null && achem.getInchi().startsWith("InChI=")) {
+                try {
+                    props = cache.get(achem);
+                } catch (Exception err) {
+                    props = null;
+                }
+            }
+            int flags = 0;
+            if (props != null) {
+                flags |= HAS_MASS;
+                if (props.getComposition() != null) {
+                    flags |= HAS_COMPOSITION;
+                }
+            }
+
+            chemOut.writeInt(string(achem.getName()));
+            chemOut.writeInt(string(achem.getInchi()));
+            chemOut.writeInt(props == null ? -1 : string(props.getFormula()));
+            chemOut.writeInt(props == null || props.getComposition() == null ? 0 : props.getComposition().getCharge());
+            chemOut.writeInt(flags);
+            chemOut.writeInt(0);
+            chemOut.writeDouble(props == null ? 0 : props.getExactMass());
+            return index;
+        }
+
+        /**
+         * @return the string's offset in the pool, adding it if new
+         */
+        private int string(String text) throws IOException {
+            if (text == null) {
+                return -1;
+            }
+            Integer offset = stringToOffset.get(text);
+            if (offset != null) {
+                return offset;
+            }
+            offset = stringOut.size();
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            stringOut.writeInt(bytes.length);
+            stringOut.write(bytes);
+            stringToOffset.put(text, offset);
+            return offset;
+        }
+
+        byte[] toBytes() throws Exception {
+            int chemOffset = HEADER_SIZE;
+            int indexOffset = chemOffset + chemOut.size();
+            int recordOffset = indexOffset + 4 * recordOffsets.size();
+            long stringOffset = (long) recordOffset + recordOut.size();
+            if (stringOffset + stringOut.size() > Integer.MAX_VALUE) {
+                System.err.println("Pathway library is too large to map");
+                throw new Exception();
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keyToChem.size());
+            out.writeInt(recordOffsets.size());
+            out.writeInt(chemOffset);
+            out.writeInt(indexOffset);
+            out.writeInt((int) stringOffset);
+            out.writeInt(0);
+            chemBytes.writeTo(out);
+            for (int offset : recordOffsets) {
+                out.writeInt(recordOffset + offset);
+            }
+            recordBytes.writeTo(out);
+            stringBytes.writeTo(out);
+            out.flush();
+            return bytes.toByteArray();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String dir = args.length > 0 ? args[0] : "data";
+        String file = args.length > 1 ? args[1] : "pathways.lib";
+
+        //Parse every pathway file once
+        List<Path> files;
+        try (Stream<Path> walk = FileUtils.walkFiles(dir, "txt")) {
+            files = walk.sorted().collect(Collectors.toList());
+        }
+        List<Pathway> paths = new ArrayList<>();
+        PathwayParser parser = new PathwayParser();
+        for (Path afile : files) {
+            try {
+                paths.addAll(parser.runFile(afile.toString()));
+            } catch (Exception err) {
+                System.err.println("Unable to read " + afile);
+            }
+        }
+        write(paths, file);
+
+        //Reopen it and analyze every pathway from the mapping
+        long start = System.nanoTime();
+        PathwayLibrary library = open(file);
+        System.out.println("Opened " + library.size() + " pathways and " + library.getChemCount() + " chemicals in "
+                + (System.nanoTime() - start) / 1000 + " us");
+
+        MolPropertyCache cache = new MolPropertyCache(MolPropertyCache.DEFAULT_CAPACITY);
+        library.preload(cache);
+        MassValidator validator = new MassValidator(cache);
+        PathwayBalancer balancer = new PathwayBalancer(PathwayBalancer.Method.FBA);
+        for (int i = 0; i < library.size(); i++) {
+            CompiledPathway compiled = library.get(i).toCompiled();
+            try {
+                boolean valid = validator.run(compiled);
+                int[] net = balancer.run(compiled);
+                Map<String, Integer> bal = new LinkedHashMap<>();
+                for (int k = 0; k < net.length; k++) {
+                    if (net[k] != 0) {
+                        bal.put(compiled.getChem(k).getName(), net[k]);
+                    }
+                }
+                System.out.println(compiled.getName() + ": " + (valid ? "valid" : "invalid") + ", " + bal);
+            } catch (Exception err) {
+                System.out.println(compiled.getName() + ": unable to balance");
+            }
+        }
+    }
+}
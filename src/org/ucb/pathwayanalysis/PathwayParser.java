@@ -1,69 +1,243 @@
-
 package org.ucb.pathwayanalysis;
 
 import java.util.ArrayList;
 import org.ucb.pathwayanalysis.model.Rxn;
 import org.ucb.pathwayanalysis.model.Pathway;
 import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.ChemRegistry;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 import org.ucb.act.utils.FileUtils;
+import org.ucb.act.utils.Metrics;
 
 /**
+ * Parses the @name/@inputs/@outputs/@reactions/@chemicals text format into
+ * Pathways.
+ *
+ * The text is tokenized in a single streaming pass: characters are read from
+ * a Reader (or decoded from a ByteBuffer) in small chunks and split into the
+ * lines of each section as they arrive, so the input is never held in
+ * memory as a whole.  A stream may hold many pathways one after another; a
+ * section label that has already been seen starts the next pathway.
+ *
+ * Chemicals are interned in a ChemRegistry, the shared one by default, so the
+ * same InChI parsed from different files yields equal Chems with one id.
  *
  * @author J. Christopher Anderson
  */
 public class PathwayParser {
-    
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private static final Metrics.Timer PARSE = Metrics.getShared().timer("parse");
+
+    private final ChemRegistry registry;
+
+    public PathwayParser() {
+        this(ChemRegistry.getShared());
+    }
+
+    public PathwayParser(ChemRegistry registry) {
+        this.registry = registry;
+    }
+
     public Pathway run(String data) throws Exception {
-        data = data.replaceAll("\"", "");
-        String[] regions = data.split("@");
-        Map<String,String> labelToText = new HashMap<>();
-        for(int i=0; i<regions.length; i++) {
-            if(regions[i].isEmpty()) {
-                continue;
+        return run(new StringReader(data));
+    }
+
+    /**
+     * @return the first pathway in the stream
+     */
+    public Pathway run(Reader reader) throws Exception {
+        List<Pathway> pathways = runAll(reader);
+        if (pathways.isEmpty()) {
+            System.err.println("No pathway found");
+            throw new Exception();
+        }
+        return pathways.get(0);
+    }
+
+    /**
+     * @return every pathway in the stream, in order
+     */
+    public List<Pathway> runAll(Reader reader) throws Exception {
+        Metrics.Stage stage = PARSE.start();
+        Tokenizer tokenizer = new Tokenizer();
+        try {
+            char[] chunk = new char[CHUNK_SIZE];
+            int len;
+            while ((len = reader.read(chunk)) != -1) {
+                tokenizer.accept(chunk, 0, len);
             }
-            
-            int firstColon = regions[i].indexOf(":");
-            String label = regions[i].substring(0, firstColon);
-            labelToText.put(label, regions[i].substring(firstColon + 1).trim());
+            tokenizer.finish();
+            return tokenizer.pathways;
+        } finally {
+            stage.end(tokenizer.pathways.size());
         }
-        
-        //Handle the chemicals
-        Map<String, Chem> chemicals = new HashMap<>();
+    }
+
+    /**
+     * Parses every pathway in a buffer of UTF-8 text, decoding it a chunk at
+     * a time.  The buffer's position is advanced to its limit.
+     */
+    public List<Pathway> runAll(ByteBuffer data) throws Exception {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        Metrics.Stage stage = PARSE.start();
+        Tokenizer tokenizer = new Tokenizer();
         try {
-            String chemData = labelToText.get("chemicals");
-            String[] lines = chemData.split("\\r|\\r?\\n");
-            for(String line : lines) {
-                if(line.isEmpty()) {
+            CharBuffer chunk = CharBuffer.allocate(CHUNK_SIZE);
+            while (true) {
+                CoderResult result = decoder.decode(data, chunk, true);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                chunk.flip();
+                tokenizer.accept(chunk.array(), 0, chunk.limit());
+                chunk.clear();
+                if (result.isUnderflow()) {
+                    break;
+                }
+            }
+            decoder.flush(chunk);
+            chunk.flip();
+            tokenizer.accept(chunk.array(), 0, chunk.limit());
+            tokenizer.finish();
+            return tokenizer.pathways;
+        } finally {
+            stage.end(tokenizer.pathways.size());
+        }
+    }
+
+    /**
+     * Parses every pathway in a file, which may be gzip-compressed
+     */
+    public List<Pathway> runFile(String path) throws Exception {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(path))) {
+            //Look for the gzip magic number
+            in.mark(2);
+            int b1 = in.read();
+            int b2 = in.read();
+            in.reset();
+            InputStream source = in;
+            if (b1 == 0x1f && b2 == 0x8b) {
+                source = new GZIPInputStream(in, CHUNK_SIZE);
+            }
+            return runAll(new InputStreamReader(source, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Splits the text into sections and lines as it streams past, building a
+     * Pathway whenever one is complete.
+     */
+    private class Tokenizer {
+        private final List<Pathway> pathways = new ArrayList<>();
+        private Map<String, List<String>> labelToLines = new HashMap<>();
+        private List<String> lines = null;
+        private final StringBuilder token = new StringBuilder();
+        private boolean inLabel = false;
+
+        void accept(char[] chars, int offset, int len) throws Exception {
+            int end = offset + len;
+            for (int i = offset; i < end; i++) {
+                char c = chars[i];
+                if (c == '"') {
+                    continue;
+                }
+                if (c == '@') {
+                    endLine();
+                    inLabel = true;
+                    continue;
+                }
+                if (inLabel) {
+                    if (c == ':') {
+                        startSection(token.toString());
+                        token.setLength(0);
+                        inLabel = false;
+                    } else {
+                        token.append(c);
+                    }
+                    continue;
+                }
+                if (c == '\r' || c == '\n') {
+                    endLine();
                     continue;
                 }
-                String[] tabs = line.split("\t");
+                token.append(c);
+            }
+        }
+
+        void finish() throws Exception {
+            endLine();
+            if (!labelToLines.isEmpty()) {
+                pathways.add(build(labelToLines));
+            }
+        }
 
-                if(tabs.length != 2) {
+        private void startSection(String label) throws Exception {
+            //A repeated label means the next pathway has begun
+            if (labelToLines.containsKey(label)) {
+                pathways.add(build(labelToLines));
+                labelToLines = new HashMap<>();
+            }
+            lines = new ArrayList<>();
+            labelToLines.put(label, lines);
+        }
+
+        private void endLine() {
+            if (lines != null) {
+                String line = token.toString().trim();
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+            token.setLength(0);
+        }
+    }
+
+    private Pathway build(Map<String, List<String>> labelToLines) throws Exception {
+        //Handle the chemicals
+        Map<String, Chem> chemicals = new HashMap<>();
+        try {
+            for(String line : section(labelToLines, "chemicals")) {
+                int tab = line.indexOf('\t');
+                if(tab < 0 || line.indexOf('\t', tab + 1) >= 0) {
                     System.err.println("Error parsing text on:\n" + line);
                     throw new Exception();
                 }
 
-                String name = tabs[0];
-                String inchi = tabs[1];
-                Chem chem = new Chem(name, inchi);
+                String name = line.substring(0, tab);
+                String inchi = line.substring(tab + 1);
+                Chem chem = registry.intern(name, inchi);
                 chemicals.put(name, chem);
             }
         } catch(Exception err) {
             System.err.println("Error processing the chemicals");
             throw err;
         }
-        
+
         //Handle the inputs
         Set<Chem> inputs = new HashSet<>();
         try {
-            String inputsData = labelToText.get("inputs");
-            String[] lines = inputsData.split("\\r|\\r?\\n");
-            for(String line : lines) {
+            for(String line : section(labelToLines, "inputs")) {
                 Chem achem = chemicals.get(line);
                 if(achem == null) {
                     System.err.println("Error findig input chem: " + line);
@@ -75,13 +249,11 @@ public class PathwayParser {
             System.err.println("Error processing the inputs");
             throw err;
         }
-        
+
         //Handle the outputs
         Set<Chem> outputs = new HashSet<>();
         try {
-            String outputsData = labelToText.get("outputs");
-            String[] lines = outputsData.split("\\r|\\r?\\n");
-            for(String line : lines) {
+            for(String line : section(labelToLines, "outputs")) {
                 Chem achem = chemicals.get(line);
                 if(achem == null) {
                     System.err.println("Error findig output chem: " + line);
@@ -93,36 +265,32 @@ public class PathwayParser {
             System.err.println("Error processing the outputs");
             throw err;
         }
-        
+
         //Handle the name
-        String name = labelToText.get("name");
-        if(name == null) {
+        List<String> nameLines = labelToLines.get("name");
+        if(nameLines == null || nameLines.isEmpty()) {
             System.err.println("Could not parse name");
             throw new Exception();
         }
-        
+        String name = String.join("\n", nameLines);
+
         //Handle the reactions
         List<Rxn> reactions = new ArrayList<>();
         try {
-            String rxnData = labelToText.get("reactions");
-            String[] lines = rxnData.split("\\r|\\r?\\n");
-            for(String line : lines) {
-                if(line.isEmpty()) {
-                    continue;
-                }
+            for(String line : section(labelToLines, "reactions")) {
                 if(!line.contains(" --> ")) {
                     continue;
                 }
-                
+
                 //Split the substrates and products
-                String[] sides = line.split("\\s+-->\\s+");
-                String subsString = sides[0];
-                String pdtsString = sides[1];
-                
+                int arrow = line.indexOf("-->");
+                String subsString = line.substring(0, arrow).trim();
+                String pdtsString = line.substring(arrow + 3).trim();
+
                 //Pull out the stoichiometry and chemical reference
                 Map<Chem, Integer> substrates = extractChems(subsString, chemicals);
                 Map<Chem, Integer> products = extractChems(pdtsString, chemicals);
-                
+
                 //Construct the reaction
                 Rxn rxn = new Rxn(substrates, products);
                 reactions.add(rxn);
@@ -131,30 +299,47 @@ public class PathwayParser {
             System.err.println("Error processing the reactions");
             throw err;
         }
-        
+
         Pathway pathway = new Pathway(name, inputs, outputs, reactions, chemicals);
         return pathway;
     }
-    
+
+    private static List<String> section(Map<String, List<String>> labelToLines, String label) throws Exception {
+        List<String> lines = labelToLines.get(label);
+        if(lines == null) {
+            System.err.println("Missing section @" + label);
+            throw new Exception();
+        }
+        return lines;
+    }
+
     private Map<Chem, Integer> extractChems(String chemString, Map<String, Chem> chemicals) throws Exception {
         Map<Chem, Integer> out = new HashMap<>();
-        String[] chemTokens = chemString.split("\\s+[+]\\s+");
-        for(String token : chemTokens) {
+        int start = 0;
+        int len = chemString.length();
+        while(start <= len) {
+            //Chemicals are separated by a + with whitespace on both sides
+            int end = start;
+            while(end < len && !(chemString.charAt(end) == '+' && end > start
+                    && Character.isWhitespace(chemString.charAt(end - 1))
+                    && end + 1 < len && Character.isWhitespace(chemString.charAt(end + 1)))) {
+                end++;
+            }
+            String token = chemString.substring(start, end).trim();
+            start = end + 1;
+
+            //A leading number followed by whitespace is the stoichiometry
             int stoich = 1;
-            String name = null;
-            
-            int numterms = token.split("[0-9]+\\s").length;
-            if( numterms == 2) {
-                String[] stoichAndName = token.split("\\s");
-                stoich = Integer.parseInt(stoichAndName[0].trim());
-                name = stoichAndName[1];
-            } else if( numterms == 1) {
-                name = token.trim();
-            } else {
-                System.err.println("Error parsing chemical token: " + token);
-                throw new Exception();
+            String name = token;
+            int digits = 0;
+            while(digits < token.length() && Character.isDigit(token.charAt(digits))) {
+                digits++;
+            }
+            if(digits > 0 && digits < token.length() && Character.isWhitespace(token.charAt(digits))) {
+                stoich = Integer.parseInt(token.substring(0, digits));
+                name = token.substring(digits).trim();
             }
-         
+
             Chem achem = chemicals.get(name);
             if (achem == null) {
                 System.err.println("Error extracting rxn chem: " + name);
@@ -170,7 +355,7 @@ public class PathwayParser {
         String data = FileUtils.readFile("/Users/jca20n/TerminalOlefins/data/glycolysis.txt");
 
         Pathway path = parser.run(data);
-        
+
         System.out.println(path.getName());
         System.out.println(path.getReactions().size() == 10);
     }
@@ -0,0 +1,428 @@
+package org.ucb.pathwayanalysis;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.ucb.act.utils.FileUtils;
+import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.Pathway;
+import org.ucb.pathwayanalysis.model.Rxn;
+
+/**
+ * A Function that searches a ReactionGraph for the cheapest routes from a
+ * set of input chemicals to a target, returning each as a Pathway that the
+ * balancer or flux balance analysis can take directly.
+ *
+ * The search chains backward from the target: a partial route is a set of
+ * reactions plus the chemicals still needed to feed them, and is extended
+ * by a reaction that makes one of those.  Reactions can have several
+ * substrates, so a route is a branched hyperpath rather than a chain.
+ * Partial routes are expanded cheapest first (A*), using as a lower bound
+ * on the cost still to come the cost of making the dearest needed chemical
+ * from the inputs and whatever the route already makes.  The bound never
+ * overestimates, so complete routes are found in order of cost and the
+ * first k are the k best.  Routes are pruned early of chemicals that
+ * cannot be made from the inputs at all, which is worked out once per set
+ * of inputs.  The bounds of a route are not worked out afresh: they are
+ * lowered from those of the inputs, and again from those of its parent,
+ * following only the chemicals whose cost drops and that the target can
+ * be made from.  Each set of reactions is expanded at most once.
+ *
+ * A complete route must run forward from the inputs; one whose reactions
+ * only feed each other in a cycle is dropped.  Side products that nothing
+ * in a route consumes are made outputs of the returned Pathway along with
+ * the target.  Cofactors are always available and never needed.  Routes
+ * are found from the graph's connectivity alone; whether one carries flux
+ * is for FluxBalanceAnalysis to say.
+ *
+ * @author J. Christopher Anderson
+ */
+public class PathwaySearch {
+
+    /**
+     * The most reactions in one route
+     */
+    public static final int MAX_REACTIONS = 40;
+
+    /**
+     * The most partial routes expanded by one search before it gives up on
+     * finding more routes
+     */
+    public static final int MAX_EXPANSIONS = 500000;
+
+    private final ReactionGraph graph;
+
+    //The cost of making each chemical from the inputs, by set of inputs
+    private final Map<BitSet, double[]> bounds = new ConcurrentHashMap<>();
+
+    public PathwaySearch(ReactionGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * @return up to k routes from the inputs to the target, cheapest first
+     */
+    public List<Pathway> run(Set<Chem> inputs, Chem target, int k) throws Exception {
+        int goal = graph.indexOf(target);
+        if (goal < 0) {
+            System.err.println("No reaction makes " + target.getName());
+            throw new Exception();
+        }
+        BitSet available = new BitSet();
+        for (Chem input : inputs) {
+            int index = graph.indexOf(input);
+            if (index >= 0) {
+                available.set(index);
+            }
+        }
+        double[] lower = bounds.computeIfAbsent(available, this::lowerBounds);
+
+        List<Pathway> out = new ArrayList<>();
+        if (lower[goal] == Double.POSITIVE_INFINITY || available.get(goal)) {
+            return out;
+        }
+
+        BitSet upstream = upstreamOf(goal);
+        PriorityQueue<Route> queue = new PriorityQueue<>();
+        //The reaction sets already taken off the queue, so no more than are expanded
+        Set<BitSet> closed = new HashSet<>();
+        BitSet needed = new BitSet();
+        needed.set(goal);
+        queue.add(new Route(new BitSet(), new int[0], new BitSet(), needed, 0, lower[goal]));
+
+        int expansions = 0;
+        while (!queue.isEmpty() && out.size() < k && expansions < MAX_EXPANSIONS) {
+            Route route = queue.poll();
+            if (!closed.add(route.rxns)) {
+                continue;
+            }
+            if (route.needed.isEmpty()) {
+                if (runsForward(route, available)) {
+                    out.add(toPathway(route, available, target, out.size() + 1));
+                }
+                continue;
+            }
+            expansions++;
+            if (route.order.length >= MAX_REACTIONS) {
+                continue;
+            }
+
+            //Make the needed chemical that is dearest to reach
+            int chem = -1;
+            for (int c = route.needed.nextSetBit(0); c >= 0; c = route.needed.nextSetBit(c + 1)) {
+                if (chem < 0 || lower[c] > lower[chem]) {
+                    chem = c;
+                }
+            }
+
+            //The cost of making each chemical from what the route has on hand
+            double[] onHand = lower.clone();
+            lowerBounds(route.produced, onHand, null, upstream);
+            double[] dist = onHand.clone();
+            BitSet changed = new BitSet();
+
+            for (int r : graph.getProducers(chem)) {
+                if (route.rxns.get(r)) {
+                    continue;
+                }
+                BitSet rxns = (BitSet) route.rxns.clone();
+                rxns.set(r);
+                if (closed.contains(rxns)) {
+                    continue;
+                }
+
+                BitSet produced = (BitSet) route.produced.clone();
+                for (int p : graph.getProducts(r)) {
+                    produced.set(p);
+                }
+                BitSet next = (BitSet) route.needed.clone();
+                for (int s : graph.getSubstrates(r)) {
+                    next.set(s);
+                }
+                next.andNot(produced);
+                next.andNot(available);
+                boolean reachable = true;
+                for (int c = next.nextSetBit(0); c >= 0; c = next.nextSetBit(c + 1)) {
+                    reachable &= lower[c] < Double.POSITIVE_INFINITY;
+                }
+                if (!reachable) {
+                    continue;
+                }
+
+                //Bound the cost to come by making each needed chemical from what is on hand
+                double h = 0;
+                if (!next.isEmpty()) {
+                    lowerBounds(produced, dist, changed, upstream);
+                    for (int c = next.nextSetBit(0); c >= 0; c = next.nextSetBit(c + 1)) {
+                        h = Math.max(h, dist[c]);
+                    }
+                    for (int c = changed.nextSetBit(0); c >= 0; c = changed.nextSetBit(c + 1)) {
+                        dist[c] = onHand[c];
+                    }
+                    changed.clear();
+                }
+                int[] order = Arrays.copyOf(route.order, route.order.length + 1);
+                order[route.order.length] = r;
+                double cost = route.cost + graph.getCost(r);
+                queue.add(new Route(rxns, order, produced, next, cost, cost + h));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return whether the route's reactions can all be run in some order
+     * starting from the inputs
+     */
+    private boolean runsForward(Route route, BitSet available) {
+        BitSet made = (BitSet) available.clone();
+        boolean[] ran = new boolean[route.order.length];
+        int remaining = ran.length;
+        boolean progress = true;
+        while (remaining > 0 && progress) {
+            progress = false;
+            for (int i = 0; i < ran.length; i++) {
+                if (ran[i]) {
+                    continue;
+                }
+                boolean ready = true;
+                for (int s : graph.getSubstrates(route.order[i])) {
+                    ready &= made.get(s);
+                }
+                if (ready) {
+                    for (int p : graph.getProducts(route.order[i])) {
+                        made.set(p);
+                    }
+                    ran[i] = true;
+                    remaining--;
+                    progress = true;
+                }
+            }
+        }
+        return remaining == 0;
+    }
+
+    /**
+     * Computes for each chemical the cost of its cheapest route from the
+     * given ones, where a reaction costs its own cost plus that of its
+     * dearest substrate.  As the substrates' routes may share reactions,
+     * this is a lower bound on the true cost.
+     */
+    private double[] lowerBounds(BitSet available) {
+        int chemCount = graph.getChemCount();
+        double[] dist = new double[chemCount];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        for (int c = available.nextSetBit(0); c >= 0; c = available.nextSetBit(c + 1)) {
+            dist[c] = 0;
+            queue.add(new double[]{0, c});
+        }
+
+        //A reaction fires once all its substrates are settled
+        int[] remaining = new int[graph.getRxnCount()];
+        for (int r = 0; r < remaining.length; r++) {
+            remaining[r] = graph.getSubstrates(r).length;
+            if (remaining[r] == 0) {
+                fire(r, dist, queue, null);
+            }
+        }
+        boolean[] settled = new boolean[chemCount];
+        while (!queue.isEmpty()) {
+            int chem = (int) queue.poll()[1];
+            if (settled[chem]) {
+                continue;
+            }
+            settled[chem] = true;
+            for (int r : graph.getConsumers(chem)) {
+                remaining[r]--;
+                if (remaining[r] == 0) {
+                    fire(r, dist, queue, null);
+                }
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * Lowers dist, the lowerBounds() of some chemicals, to those once the
+     * added ones are on hand too.  Only the chemicals whose cost drops are
+     * visited, and only those upstream are followed further, as no other
+     * cost can bear on them.  Each one lowered is marked in changed, if
+     * given, so the caller can put dist back afterwards.
+     */
+    private void lowerBounds(BitSet added, double[] dist, BitSet changed, BitSet upstream) {
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        for (int c = added.nextSetBit(0); c >= 0; c = added.nextSetBit(c + 1)) {
+            if (dist[c] > 0) {
+                dist[c] = 0;
+                if (changed != null) {
+                    changed.set(c);
+                }
+                queue.add(new double[]{0, c});
+            }
+        }
+
+        //A consumer of a chemical whose cost dropped may now make its products more cheaply
+        while (!queue.isEmpty()) {
+            double[] top = queue.poll();
+            int chem = (int) top[1];
+            if (top[0] > dist[chem] || !upstream.get(chem)) {
+                continue;
+            }
+            for (int r : graph.getConsumers(chem)) {
+                fire(r, dist, queue, changed);
+            }
+        }
+    }
+
+    /**
+     * @return the chemicals the goal can be made from, itself included,
+     * following its producers back through their substrates
+     */
+    private BitSet upstreamOf(int goal) {
+        BitSet upstream = new BitSet();
+        upstream.set(goal);
+        List<Integer> stack = new ArrayList<>();
+        stack.add(goal);
+        while (!stack.isEmpty()) {
+            int chem = stack.remove(stack.size() - 1);
+            for (int r : graph.getProducers(chem)) {
+                for (int s : graph.getSubstrates(r)) {
+                    if (!upstream.get(s)) {
+                        upstream.set(s);
+                        stack.add(s);
+                    }
+                }
+            }
+        }
+        return upstream;
+    }
+
+    private void fire(int r, double[] dist, PriorityQueue<double[]> queue, BitSet changed) {
+        double cost = graph.getCost(r);
+        double dearest = 0;
+        for (int s : graph.getSubstrates(r)) {
+            dearest = Math.max(dearest, dist[s]);
+        }
+        cost += dearest;
+        for (int p : graph.getProducts(r)) {
+            if (cost < dist[p]) {
+                dist[p] = cost;
+                if (changed != null) {
+                    changed.set(p);
+                }
+                queue.add(new double[]{cost, p});
+            }
+        }
+    }
+
+    private Pathway toPathway(Route route, BitSet available, Chem target, int rank) {
+        //The reactions were added working back from the target, so reverse them
+        List<Rxn> rxns = new ArrayList<>();
+        Map<String, Chem> chemicals = new LinkedHashMap<>();
+        BitSet consumed = new BitSet();
+        for (int i = route.order.length - 1; i >= 0; i--) {
+            int r = route.order[i];
+            Rxn rxn = graph.getRxn(r);
+            rxns.add(rxn);
+            for (Chem achem : rxn.getSubstrates().keySet()) {
+                chemicals.put(achem.getName(), achem);
+            }
+            for (Chem achem : rxn.getProducts().keySet()) {
+                chemicals.put(achem.getName(), achem);
+            }
+            for (int s : graph.getSubstrates(r)) {
+                consumed.set(s);
+            }
+        }
+
+        Set<Chem> inputs = new LinkedHashSet<>();
+        BitSet used = (BitSet) consumed.clone();
+        used.and(available);
+        for (int c = used.nextSetBit(0); c >= 0; c = used.nextSetBit(c + 1)) {
+            inputs.add(graph.getChem(c));
+        }
+
+        Set<Chem> outputs = new LinkedHashSet<>();
+        outputs.add(target);
+        BitSet side = (BitSet) route.produced.clone();
+        side.andNot(consumed);
+        side.andNot(available);
+        for (int c = side.nextSetBit(0); c >= 0; c = side.nextSetBit(c + 1)) {
+            outputs.add(graph.getChem(c));
+        }
+
+        String name = target.getName() + " route " + rank + " (cost " + route.cost + ")";
+        return new Pathway(name, inputs, outputs, rxns, chemicals);
+    }
+
+    /**
+     * A partial route, ordered by its cost plus the lower bound on the cost
+     * of finishing it
+     */
+    private static final class Route implements Comparable<Route> {
+        private final BitSet rxns;
+        private final int[] order;
+        private final BitSet produced;
+        private final BitSet needed;
+        private final double cost;
+        private final double estimate;
+
+        Route(BitSet rxns, int[] order, BitSet produced, BitSet needed, double cost, double estimate) {
+            this.rxns = rxns;
+            this.order = order;
+            this.produced = produced;
+            this.needed = needed;
+            this.cost = cost;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public int compareTo(Route other) {
+            return Double.compare(estimate, other.estimate);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String dir = args.length > 0 ? args[0] : "data";
+
+        //Merge every pathway file into one graph
+        List<Path> files;
+        try (Stream<Path> walk = FileUtils.walkFiles(dir, "txt")) {
+            files = walk.sorted().collect(Collectors.toList());
+        }
+        List<Pathway> paths = new ArrayList<>();
+        for (Path file : files) {
+            try {
+                paths.addAll(new PathwayParser().runFile(file.toString()));
+            } catch (Exception err) {
+                System.err.println("Skipping " + file + ", it is not a pathway file");
+            }
+        }
+        ReactionGraph graph = new ReactionGraph(paths);
+        System.out.println(graph.getRxnCount() + " reactions over " + graph.getChemCount() + " chemicals\n");
+
+        PathwaySearch search = new PathwaySearch(graph);
+        Set<Chem> inputs = new HashSet<>();
+        inputs.add(graph.findChem("glucose"));
+        for (String target : new String[]{"ethanol", "butanol", "1,3-propanediol", "IPP", "pimar", "chorismate"}) {
+            long start = System.nanoTime();
+            List<Pathway> routes = search.run(inputs, graph.findChem(target), 3);
+            System.out.println("glucose to " + target + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+            for (Pathway route : routes) {
+                System.out.println("    " + route.getName() + ", " + route.getReactions().size() + " reactions");
+            }
+        }
+    }
+}
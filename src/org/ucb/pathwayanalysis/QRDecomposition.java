@@ -0,0 +1,231 @@
+package org.ucb.pathwayanalysis;
+
+import org.ucb.act.utils.Metrics;
+
+/**
+ * A rank-revealing QR factorization with column pivoting, A*P = Q*R, of an
+ * m x n matrix of any shape.  Q is kept as the Householder reflections
+ * that build it, stored below the diagonal of a copy of the matrix, and R
+ * as the rest of that copy plus its diagonal.
+ *
+ * At each step the remaining column of largest norm is taken next, so the
+ * diagonal of R shrinks down the factorization.  Once the largest
+ * remaining column is negligible next to the first, every column left is
+ * a combination of those already taken: the factorization stops there,
+ * and the number of steps taken is the rank.  The ratio of the first and
+ * last diagonal entries of R estimates the condition number.
+ *
+ * solve() gives the least-squares solution of A*x = b, exact when the
+ * system is consistent.  Where the rank is below n the solution is not
+ * unique, and the one returned has zeros for the columns left over.
+ *
+ * @author J. Christopher Anderson
+ */
+public class QRDecomposition {
+
+    /**
+     * A diagonal of R this small relative to the first marks the rank
+     */
+    public static final double RANK_TOLERANCE = 1e-10;
+
+    private static final Metrics.Counter SWAPS = Metrics.getShared().counter("qr.swaps");
+
+    private final int rows;
+    private final int cols;
+    private final double[][] qr;
+    private final double[] rdiag;
+    private final int[] perm;
+    private final int rank;
+
+    private QRDecomposition(int rows, int cols, double[][] qr, double[] rdiag, int[] perm, int rank) {
+        this.rows = rows;
+        this.cols = cols;
+        this.qr = qr;
+        this.rdiag = rdiag;
+        this.perm = perm;
+        this.rank = rank;
+    }
+
+    /**
+     * Factors a rectangular matrix, which is not modified
+     */
+    public static QRDecomposition factor(double[][] mat) throws Exception {
+        int m = mat.length;
+        int n = m == 0 ? 0 : mat[0].length;
+        double[][] a = new double[m][];
+        for (int i = 0; i < m; i++) {
+            if (mat[i].length != n) {
+                throw new Exception("QRDecomposition requires a rectangular matrix");
+            }
+            a[i] = mat[i].clone();
+        }
+
+        int[] perm = new int[n];
+        double[] norms = new double[n];
+        for (int j = 0; j < n; j++) {
+            perm[j] = j;
+            for (int i = 0; i < m; i++) {
+                norms[j] += a[i][j] * a[i][j];
+            }
+        }
+
+        double[] rdiag = new double[Math.min(m, n)];
+        double first = 0;
+        int rank = 0;
+        int swaps = 0;
+        for (int k = 0; k < rdiag.length; k++) {
+            //Take the remaining column of largest norm
+            int p = k;
+            for (int j = k + 1; j < n; j++) {
+                if (norms[j] > norms[p]) {
+                    p = j;
+                }
+            }
+            if (p != k) {
+                swaps++;
+                for (int i = 0; i < m; i++) {
+                    double tmp = a[i][k];
+                    a[i][k] = a[i][p];
+                    a[i][p] = tmp;
+                }
+                int itmp = perm[k];
+                perm[k] = perm[p];
+                perm[p] = itmp;
+                norms[p] = norms[k];
+            }
+
+            //Its norm is recomputed, as the running norms lose precision
+            double norm = 0;
+            for (int i = k; i < m; i++) {
+                norm += a[i][k] * a[i][k];
+            }
+            norm = Math.sqrt(norm);
+            if (k == 0) {
+                first = norm;
+            }
+            if (norm == 0 || norm <= RANK_TOLERANCE * first) {
+                break;
+            }
+
+            //Reflect column k onto the diagonal, keeping v in its place
+            double alpha = a[k][k] > 0 ? -norm : norm;
+            a[k][k] -= alpha;
+            double vv = -2 * alpha * a[k][k];
+            for (int j = k + 1; j < n; j++) {
+                double s = 0;
+                for (int i = k; i < m; i++) {
+                    s += a[i][k] * a[i][j];
+                }
+                double f = 2 * s / vv;
+                for (int i = k; i < m; i++) {
+                    a[i][j] -= f * a[i][k];
+                }
+                norms[j] -= a[k][j] * a[k][j];
+            }
+            rdiag[k] = alpha;
+            rank++;
+        }
+        SWAPS.add(swaps);
+        return new QRDecomposition(m, n, a, rdiag, perm, rank);
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRank() {
+        return rank;
+    }
+
+    /**
+     * @return true if no column is a combination of the others
+     */
+    public boolean isFullColumnRank() {
+        return rank == cols;
+    }
+
+    /**
+     * @return the ratio of the largest to the smallest diagonal of R over
+     * the rank, a lower bound on the 2-norm condition number of the
+     * independent columns, or infinity if the matrix is zero
+     */
+    public double getConditionNumber() {
+        if (rank == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.abs(rdiag[0]) / Math.abs(rdiag[rank - 1]);
+    }
+
+    /**
+     * @return the original index of the column taken at each step, the
+     * first getRank() of which are independent
+     */
+    public int[] getPermutation() {
+        return perm.clone();
+    }
+
+    /**
+     * Solves A*x = b in the least-squares sense, leaving b untouched
+     */
+    public double[] solve(double[] b) {
+        //y = Q^T * b, one reflection at a time
+        double[] y = b.clone();
+        for (int k = 0; k < rank; k++) {
+            double vv = -2 * rdiag[k] * qr[k][k];
+            double s = 0;
+            for (int i = k; i < rows; i++) {
+                s += qr[i][k] * y[i];
+            }
+            double f = 2 * s / vv;
+            for (int i = k; i < rows; i++) {
+                y[i] -= f * qr[i][k];
+            }
+        }
+
+        //Back substitution over the independent columns
+        double[] z = new double[rank];
+        for (int k = rank - 1; k >= 0; k--) {
+            double sum = y[k];
+            for (int j = k + 1; j < rank; j++) {
+                sum -= qr[k][j] * z[j];
+            }
+            z[k] = sum / rdiag[k];
+        }
+
+        double[] x = new double[cols];
+        for (int k = 0; k < rank; k++) {
+            x[perm[k]] = z[k];
+        }
+        return x;
+    }
+
+    public static void main(String[] args) throws Exception {
+        //Three intermediates, two reactions: overdetermined but consistent
+        double[][] mat = new double[][] {
+            {-1, 0},
+            {2, -1},
+            {0, 1}
+        };
+        double[] b = new double[] {-1, 1, 1};
+
+        QRDecomposition qr = QRDecomposition.factor(mat);
+        System.out.println("Rank " + qr.getRank() + ", condition " + qr.getConditionNumber());
+        double[] x = qr.solve(b);
+        for (double val : x) {
+            System.out.println(val);
+        }
+
+        //The third column is the sum of the first two
+        double[][] dependent = new double[][] {
+            {1, 0, 1},
+            {0, 1, 1},
+            {1, 1, 2}
+        };
+        qr = QRDecomposition.factor(dependent);
+        System.out.println("Rank " + qr.getRank() + " of " + qr.getCols());
+    }
+}
@@ -0,0 +1,238 @@
+package org.ucb.pathwayanalysis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.Pathway;
+import org.ucb.pathwayanalysis.model.Rxn;
+
+/**
+ * The reactions of many pathways merged into one bipartite graph of
+ * chemicals and reactions, indexed for searching.  Chemicals are matched
+ * as the parser interns them, so glucose from glycolysis.txt and from
+ * ethanol.txt are one node, and a reaction written out in several files is
+ * kept once.
+ *
+ * Cofactors are hubs that nearly every reaction touches, so they are left
+ * out of the graph's edges: a route never passes through ATP from one
+ * reaction to the next.  Instead they set the cost of each reaction, which
+ * is STEP_COST plus COFACTOR_COST for each unit of a tracked cofactor
+ * (ATP, NAD(P)H...) that it consumes.
+ *
+ * A graph is immutable once built and can be searched from many threads.
+ *
+ * @author J. Christopher Anderson
+ */
+public class ReactionGraph {
+    public static final double STEP_COST = 1.0;
+    public static final double COFACTOR_COST = 0.5;
+
+    private final CofactorProfile profile;
+    private final List<Chem> chems = new ArrayList<>();
+    private final Map<Chem, Integer> chemToIndex = new HashMap<>();
+    private final List<Rxn> rxns = new ArrayList<>();
+
+    //The non-cofactor substrates and products of each reaction, by chemical index
+    private final int[][] substrates;
+    private final int[][] products;
+    private final double[] costs;
+
+    //The reactions that make and use each chemical
+    private final int[][] producers;
+    private final int[][] consumers;
+
+    public ReactionGraph(List<Pathway> paths) {
+        this(paths, CofactorProfile.getDefault());
+    }
+
+    public ReactionGraph(List<Pathway> paths, CofactorProfile profile) {
+        this.profile = profile;
+
+        //Merge the reactions, dropping repeats
+        Set<String> seen = new HashSet<>();
+        for (Pathway path : paths) {
+            for (Rxn rxn : path.getReactions()) {
+                if (seen.add(keyOf(rxn))) {
+                    rxns.add(rxn);
+                }
+            }
+        }
+
+        int rxnCount = rxns.size();
+        this.substrates = new int[rxnCount][];
+        this.products = new int[rxnCount][];
+        this.costs = new double[rxnCount];
+        List<List<Integer>> making = new ArrayList<>();
+        List<List<Integer>> using = new ArrayList<>();
+        for (int r = 0; r < rxnCount; r++) {
+            Rxn rxn = rxns.get(r);
+            substrates[r] = index(rxn.getSubstrates(), making, using);
+            products[r] = index(rxn.getProducts(), making, using);
+            for (int chem : substrates[r]) {
+                using.get(chem).add(r);
+            }
+            for (int chem : products[r]) {
+                making.get(chem).add(r);
+            }
+
+            //Charge for each tracked cofactor the reaction uses up
+            double cost = STEP_COST;
+            for (String cofactor : profile.getTracked()) {
+                int used = coefficientOf(rxn.getSubstrates(), cofactor) - coefficientOf(rxn.getProducts(), cofactor);
+                if (used > 0) {
+                    cost += COFACTOR_COST * used;
+                }
+            }
+            costs[r] = cost;
+        }
+
+        this.producers = toArrays(making);
+        this.consumers = toArrays(using);
+    }
+
+    /**
+     * A reaction's identity, its chemicals and coefficients in a fixed order
+     */
+    private static String keyOf(Rxn rxn) {
+        return new TreeMap<>(keys(rxn.getSubstrates())) + " --> " + new TreeMap<>(keys(rxn.getProducts()));
+    }
+
+    private static Map<String, Integer> keys(Map<Chem, Integer> side) {
+        Map<String, Integer> out = new HashMap<>();
+        for (Map.Entry<Chem, Integer> entry : side.entrySet()) {
+            out.put(entry.getKey().getKey(), entry.getValue());
+        }
+        return out;
+    }
+
+    private static int coefficientOf(Map<Chem, Integer> side, String name) {
+        int total = 0;
+        for (Map.Entry<Chem, Integer> entry : side.entrySet()) {
+            if (entry.getKey().getName().equals(name)) {
+                total += entry.getValue();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return the indices of the non-cofactor chemicals on one side of a
+     * reaction, adding any new ones to the graph
+     */
+    private int[] index(Map<Chem, Integer> side, List<List<Integer>> making, List<List<Integer>> using) {
+        List<Integer> out = new ArrayList<>();
+        for (Chem achem : side.keySet()) {
+            if (profile.isCofactor(achem.getName())) {
+                continue;
+            }
+            Integer index = chemToIndex.get(achem);
+            if (index == null) {
+                index = chems.size();
+                chems.add(achem);
+                chemToIndex.put(achem, index);
+                making.add(new ArrayList<>());
+                using.add(new ArrayList<>());
+            }
+            out.add(index);
+        }
+        int[] arr = new int[out.size()];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = out.get(i);
+        }
+        return arr;
+    }
+
+    private static int[][] toArrays(List<List<Integer>> lists) {
+        int[][] out = new int[lists.size()][];
+        for (int i = 0; i < out.length; i++) {
+            List<Integer> list = lists.get(i);
+            out[i] = new int[list.size()];
+            for (int k = 0; k < out[i].length; k++) {
+                out[i][k] = list.get(k);
+            }
+        }
+        return out;
+    }
+
+    public CofactorProfile getProfile() {
+        return profile;
+    }
+
+    public int getChemCount() {
+        return chems.size();
+    }
+
+    public Chem getChem(int index) {
+        return chems.get(index);
+    }
+
+    /**
+     * @return the index of a chemical, or -1 if no reaction in the graph
+     * touches it
+     */
+    public int indexOf(Chem achem) {
+        Integer index = chemToIndex.get(achem);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return the first chemical with this name, or null
+     */
+    public Chem findChem(String name) {
+        for (Chem achem : chems) {
+            if (achem.getName().equals(name)) {
+                return achem;
+            }
+        }
+        return null;
+    }
+
+    public int getRxnCount() {
+        return rxns.size();
+    }
+
+    public Rxn getRxn(int r) {
+        return rxns.get(r);
+    }
+
+    public double getCost(int r) {
+        return costs[r];
+    }
+
+    /**
+     * @return the non-cofactor substrates of a reaction; the array must not
+     * be modified
+     */
+    public int[] getSubstrates(int r) {
+        return substrates[r];
+    }
+
+    /**
+     * @return the non-cofactor products of a reaction; the array must not be
+     * modified
+     */
+    public int[] getProducts(int r) {
+        return products[r];
+    }
+
+    /**
+     * @return the reactions that make a chemical; the array must not be
+     * modified
+     */
+    public int[] getProducers(int chem) {
+        return producers[chem];
+    }
+
+    /**
+     * @return the reactions that use a chemical; the array must not be
+     * modified
+     */
+    public int[] getConsumers(int chem) {
+        return consumers[chem];
+    }
+}
@@ -0,0 +1,502 @@
+package org.ucb.pathwayanalysis;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import org.ucb.act.utils.FileUtils;
+import org.ucb.act.utils.Metrics;
+import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.Pathway;
+import org.ucb.pathwayanalysis.model.PathwayResult;
+import org.ucb.pathwayanalysis.model.RxnBalance;
+import org.ucb.pathwayanalysis.model.ValidationReport;
+
+/**
+ * A persistent cache of the results of parsing, validating and balancing
+ * pathway files, keyed by a SHA-256 hash of each file's bytes together with
+ * the cofactor profile.  A file whose content and profile are unchanged is
+ * never parsed, validated or balanced again, whatever its name or date.
+ *
+ * Results are appended to a log file as they are computed, one line per
+ * pathway, so a crash loses at most the entry being written.  Each line
+ * ends with a checksum of the rest of it, and a line that is cut short or
+ * garbled is dropped along with its entry rather than read back.  The most
+ * recently used entries are kept in memory up to the capacity, and the log
+ * is compacted down to just those once it holds twice as many entries as
+ * there are live ones, which is how old entries are evicted from disk.
+ * Parsed Pathways are only held in memory; results read back from the log
+ * carry the validation and balance without the model.
+ *
+ * Results whose validation could not run, as when ChemAxon or its license
+ * is unavailable, are returned but not kept, so they are computed again
+ * on the next run rather than remembered as unchecked for good.
+ *
+ * watch() keeps a directory tree's results current, recomputing only the
+ * files whose content changes.  The cache is safe to use from many threads.
+ *
+ * @author J. Christopher Anderson
+ */
+public class ResultCache implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private final String logPath;
+    private final int capacity;
+    private final CofactorProfile profile;
+    private final String config;
+    private final MassValidator validator = new MassValidator();
+    private final PathwayBalancer balancer;
+    private final Map<String, List<PathwayResult>> hashToResults;
+
+    private Writer log;
+    private int logged = 0;
+    private int hits = 0;
+    private int misses = 0;
+
+    public ResultCache(String logPath) throws Exception {
+        this(logPath, DEFAULT_CAPACITY, CofactorProfile.getDefault());
+    }
+
+    public ResultCache(String logPath, int capacity, CofactorProfile profile) throws Exception {
+        this.logPath = logPath;
+        this.capacity = capacity;
+        this.profile = profile;
+        this.balancer = new PathwayBalancer(profile, PathwayBalancer.Method.EXACT);
+        this.config = "cofactors=" + new TreeSet<>(profile.getCofactors()) + " tracked=" + profile.getTracked() + "\n";
+        this.hashToResults = new LinkedHashMap<String, List<PathwayResult>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<PathwayResult>> eldest) {
+                return size() > ResultCache.this.capacity;
+            }
+        };
+        load();
+        dropTornLine();
+        this.log = new OutputStreamWriter(new FileOutputStream(logPath, true), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the hex SHA-256 of a file's bytes under this cache's profile
+     */
+    public String hash(byte[] content) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(config.getBytes(StandardCharsets.UTF_8));
+        byte[] sum = digest.digest(content);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : sum) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the results for a pathway file, computing them on a miss
+     */
+    public List<PathwayResult> runFile(String path) throws Exception {
+        return run(FileUtils.readBytes(path));
+    }
+
+    /**
+     * Looks up the results for the content of a pathway file, which may be
+     * gzip-compressed, computing them on a miss.  The work happens outside
+     * the lock, so two threads missing on the same content at once may both
+     * do it; the results are identical.
+     */
+    public List<PathwayResult> run(byte[] content) throws Exception {
+        String hash = hash(content);
+        synchronized (this) {
+            List<PathwayResult> results = hashToResults.get(hash);
+            if (results != null) {
+                hits++;
+                return results;
+            }
+        }
+
+        List<PathwayResult> results = compute(content);
+
+        synchronized (this) {
+            misses++;
+            if (!isSettled(results)) {
+                return results;
+            }
+            hashToResults.put(hash, results);
+            append(hash, results);
+            if (logged > 2 * Math.max(hashToResults.size(), 1)) {
+                compact();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return false if any pathway could not be validated, which may pass
+     * once the environment is fixed
+     */
+    private static boolean isSettled(List<PathwayResult> results) {
+        for (PathwayResult result : results) {
+            if (result.isValid() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs every .txt file under a directory, in parallel
+     *
+     * @return the results of each file, in path order
+     */
+    public Map<Path, List<PathwayResult>> runDir(String dir) throws Exception {
+        List<Path> files;
+        try (Stream<Path> walk = FileUtils.walkFiles(dir, "txt")) {
+            files = walk.sorted().collect(Collectors.toList());
+        }
+        List<List<PathwayResult>> results = files.parallelStream().map(file -> {
+            try {
+                return runFile(file.toString());
+            } catch (Exception err) {
+                System.err.println("Unable to read " + file);
+                return new ArrayList<PathwayResult>();
+            }
+        }).collect(Collectors.toList());
+
+        Map<Path, List<PathwayResult>> out = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            out.put(files.get(i), results.get(i));
+        }
+        return out;
+    }
+
+    /**
+     * Runs every .txt file under a directory, then waits for files to be
+     * created or modified anywhere in the tree and runs each as it changes,
+     * passing every result to the listener.  Files saved without a change
+     * in content are hits.  Returns only when the thread is interrupted.
+     */
+    public void watch(String dir, BiConsumer<Path, List<PathwayResult>> listener) throws Exception {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            Map<WatchKey, Path> keyToDir = new HashMap<>();
+            register(watcher, Paths.get(dir), keyToDir);
+            for (Map.Entry<Path, List<PathwayResult>> entry : runDir(dir).entrySet()) {
+                listener.accept(entry.getKey(), entry.getValue());
+            }
+
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key;
+                try {
+                    key = watcher.take();
+                } catch (InterruptedException err) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        continue;
+                    }
+                    Path file = keyToDir.get(key).resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file)) {
+                        //Watch the new directory, then run anything already in it
+                        register(watcher, file, keyToDir);
+                        for (Map.Entry<Path, List<PathwayResult>> entry : runDir(file.toString()).entrySet()) {
+                            listener.accept(entry.getKey(), entry.getValue());
+                        }
+                        continue;
+                    }
+                    if (!FileUtils.isFileType(file.toString(), "txt") || !Files.isRegularFile(file)) {
+                        continue;
+                    }
+                    try {
+                        listener.accept(file, runFile(file.toString()));
+                    } catch (Exception err) {
+                        System.err.println("Unable to read " + file);
+                    }
+                }
+                if (!key.reset()) {
+                    keyToDir.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a directory and every directory below it with the watcher
+     */
+    private static void register(WatchService watcher, Path root, Map<WatchKey, Path> keyToDir) throws IOException {
+        List<Path> dirs;
+        try (Stream<Path> walk = Files.walk(root)) {
+            dirs = walk.filter(Files::isDirectory).collect(Collectors.toList());
+        }
+        for (Path sub : dirs) {
+            keyToDir.put(sub.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY), sub);
+        }
+    }
+
+    private List<PathwayResult> compute(byte[] content) throws Exception {
+        List<PathwayResult> out = new ArrayList<>();
+        List<Pathway> paths;
+        try {
+            InputStream in = new ByteArrayInputStream(content);
+            if (content.length >= 2 && (content[0] & 0xff) == 0x1f && (content[1] & 0xff) == 0x8b) {
+                in = new GZIPInputStream(in);
+            }
+            paths = new PathwayParser().runAll(new InputStreamReader(in, StandardCharsets.UTF_8));
+        } catch (Exception err) {
+            //Not a pathway file; remember that too
+            return out;
+        }
+
+        for (Pathway path : paths) {
+            Boolean valid = null;
+            List<Integer> failures = new ArrayList<>();
+            try {
+                ValidationReport report = validator.report(path);
+                valid = report.isValid();
+                for (RxnBalance bal : report.getFailures()) {
+                    failures.add(bal.getIndex());
+                }
+            } catch (Exception err) {
+                valid = null;
+            }
+
+            Map<String, Integer> balance = null;
+            try {
+                balance = new LinkedHashMap<>();
+                for (Map.Entry<Chem, Integer> entry : balancer.run(path).entrySet()) {
+                    balance.put(entry.getKey().getName(), entry.getValue());
+                }
+            } catch (Exception err) {
+                balance = null;
+            }
+            out.add(new PathwayResult(path.getName(), path, valid, failures, balance));
+        }
+        return out;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return hashToResults.size();
+    }
+
+    /**
+     * Reads the log, keeping the last complete entry for each hash.  Lines
+     * that are damaged, as the last one may be after a crash, are skipped.
+     */
+    private void load() throws Exception {
+        if (!new File(logPath).isFile()) {
+            return;
+        }
+        String data = FileUtils.readFile(logPath);
+        String pending = null;
+        List<PathwayResult> results = null;
+        for (String line : data.split("\\r?\\n")) {
+            try {
+                String[] tabs = fields(line);
+                int index = Integer.parseInt(tabs[1]);
+                int count = Integer.parseInt(tabs[2]);
+                if (index == 0) {
+                    pending = tabs[0];
+                    results = new ArrayList<>();
+                } else if (!tabs[0].equals(pending) || results.size() != index) {
+                    continue;
+                }
+                if (count > 0) {
+                    results.add(parseResult(tabs));
+                }
+                if (results.size() == count) {
+                    hashToResults.put(pending, results);
+                    logged++;
+                    pending = null;
+                }
+            } catch (Exception err) {
+                if (!line.isEmpty()) {
+                    System.err.println("Skipping damaged cache record in " + logPath);
+                }
+                pending = null;
+            }
+        }
+    }
+
+    /**
+     * @return the tab-separated fields of a log line, without its checksum
+     * @throws Exception if the line is missing its checksum or fails it
+     */
+    private static String[] fields(String line) throws Exception {
+        int end = line.lastIndexOf('\t');
+        if (end < 0 || !line.substring(end + 1).equals(checksum(line.substring(0, end)))) {
+            throw new Exception();
+        }
+        return line.substring(0, end).split("\t", -1);
+    }
+
+    /**
+     * @return the CRC-32 of a log line's content, in hex
+     */
+    private static String checksum(String body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Cuts off a last line left unfinished by a crash, so that the next
+     * entry appended starts on a line of its own
+     */
+    private void dropTornLine() throws IOException {
+        if (!new File(logPath).isFile()) {
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(logPath, "rw")) {
+            long end = file.length();
+            while (end > 0) {
+                file.seek(end - 1);
+                if (file.read() == '\n') {
+                    break;
+                }
+                end--;
+            }
+            file.setLength(end);
+        }
+    }
+
+    private static PathwayResult parseResult(String[] tabs) {
+        Boolean valid = tabs[4].equals("unchecked") ? null : tabs[4].equals("valid");
+        List<Integer> failures = new ArrayList<>();
+        if (!tabs[5].isEmpty()) {
+            for (String index : tabs[5].split(",")) {
+                failures.add(Integer.parseInt(index));
+            }
+        }
+        Map<String, Integer> balance = null;
+        if (tabs[6].equals("balanced")) {
+            balance = new LinkedHashMap<>();
+            for (int i = 7; i + 1 < tabs.length; i += 2) {
+                balance.put(tabs[i], Integer.parseInt(tabs[i + 1]));
+            }
+        }
+        return new PathwayResult(tabs[3], null, valid, failures, balance);
+    }
+
+    /**
+     * Writes an entry as lines of hash, index, count, name, validity,
+     * failed reactions, whether balanced, and then name and coefficient
+     * pairs, all separated by tabs, and last the checksum of the line.  A
+     * file with no pathways is one line with a count of zero.
+     */
+    private void append(String hash, List<PathwayResult> results) throws Exception {
+        log.write(format(hash, results));
+        log.flush();
+        logged++;
+    }
+
+    private static String format(String hash, List<PathwayResult> results) {
+        StringBuilder out = new StringBuilder();
+        if (results.isEmpty()) {
+            String line = hash + "\t0\t0";
+            out.append(line).append("\t").append(checksum(line)).append("\n");
+        }
+        for (int i = 0; i < results.size(); i++) {
+            PathwayResult result = results.get(i);
+            StringBuilder sb = new StringBuilder();
+            sb.append(hash).append("\t").append(i).append("\t").append(results.size());
+            sb.append("\t").append(result.getName());
+            sb.append("\t").append(result.isValid() == null ? "unchecked" : result.isValid() ? "valid" : "invalid");
+            sb.append("\t").append(result.getFailures().stream().map(String::valueOf).collect(Collectors.joining(",")));
+            sb.append("\t").append(result.getBalance() == null ? "unbalanced" : "balanced");
+            if (result.getBalance() != null) {
+                for (Map.Entry<String, Integer> entry : result.getBalance().entrySet()) {
+                    sb.append("\t").append(entry.getKey()).append("\t").append(entry.getValue());
+                }
+            }
+            out.append(sb).append("\t").append(checksum(sb.toString())).append("\n");
+        }
+        return out.toString();
+    }
+
+    /**
+     * Rewrites the log with just the live entries, least recently used
+     * first, replacing the old log in one step
+     */
+    public synchronized void compact() throws Exception {
+        log.close();
+        String tmpPath = logPath + ".tmp";
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(tmpPath), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, List<PathwayResult>> entry : hashToResults.entrySet()) {
+                out.write(format(entry.getKey(), entry.getValue()));
+            }
+        }
+        Files.move(Paths.get(tmpPath), Paths.get(logPath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logged = hashToResults.size();
+        log = new OutputStreamWriter(new FileOutputStream(logPath, true), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String dir = args.length > 0 ? args[0] : "data";
+        boolean watch = args.length > 1 && args[1].equals("--watch");
+
+        try (ResultCache cache = new ResultCache("result_cache.txt")) {
+            if (watch) {
+                cache.watch(dir, (file, results) -> {
+                    System.out.println(file + " (" + cache.getHits() + " hits, " + cache.getMisses() + " misses)");
+                    for (PathwayResult result : results) {
+                        System.out.println("    " + result);
+                    }
+                });
+                return;
+            }
+
+            //A second pass over unchanged files is all hits
+            for (int pass = 1; pass <= 2; pass++) {
+                long start = System.nanoTime();
+                Map<Path, List<PathwayResult>> results = cache.runDir(dir);
+                System.out.println("Pass " + pass + ": " + results.size() + " files in " + (System.nanoTime() - start) / 1000000
+                        + " ms, " + cache.getHits() + " hits, " + cache.getMisses() + " misses");
+            }
+            for (Map.Entry<Path, List<PathwayResult>> entry : cache.runDir(dir).entrySet()) {
+                for (PathwayResult result : entry.getValue()) {
+                    System.out.println(entry.getKey().getFileName() + "\t" + result);
+                }
+            }
+            System.out.println();
+            System.out.print(Metrics.getShared().summary());
+        }
+    }
+}
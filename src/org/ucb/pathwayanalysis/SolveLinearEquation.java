@@ -2,140 +2,29 @@
 package org.ucb.pathwayanalysis;
 
 /*
- * This is java program to solve the system of linear equations. This can be 
- * done by first representing equations(vectors) to matrix form, then finding 
- * the inverse of the matrix formed by the coefficients of variable and 
- * multiplying it with constants.
+ * This is java program to solve the system of linear equations. This is
+ * done by factoring the matrix of coefficients into lower and upper
+ * triangles (LU decomposition with scaled partial pivoting), then solving
+ * for the constants by forward and back substitution.  The factorization
+ * can be kept and reused to solve for any number of objective vectors.
  *
  * Adapated from http://www.sanfoundry.com/java-program-solve-linear-equation/
  */
 public class SolveLinearEquation {
 
+    /**
+     * Solves mat * x = objective.  The matrix is not modified.
+     */
     public double[] run(double[][] mat, double[] objective) throws Exception {
-        int n = objective.length;
-        
-        //Zero out a constants array
-        double[][] constants = new double[n][n];
-        for(int i=0; i<n; i++) {
-            for(int j=0; j<n; j++) {
-                constants[i][j] = 0;
-            }
-        }
-        
-        //Fill in the objective function
-        for(int i=0; i<n; i++) {
-            constants[i][0] = objective[i];
-        }
-        
-        //inverse of matrix mat[][]
-        double inverted_mat[][] = invert(mat);
-        
-        //Multiplication of mat inverse and constants
-        double result[][] = new double[n][1];
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < 1; j++) {
-                for (int k = 0; k < n; k++) {
-                    result[i][j] = result[i][j] + inverted_mat[i][k] * constants[k][j];
-                }
-            }
-        }
-        
-        double[] out = new double[n];
-        for(int i=0; i<n; i++) {
-            out[i] = result[i][0];
-        }
-        
-        return out;
-    }
-
-    private double[][] invert(double a[][]) {
-        int n = a.length;
-        double x[][] = new double[n][n];
-        double b[][] = new double[n][n];
-        int index[] = new int[n];
-        for (int i = 0; i < n; ++i) {
-            b[i][i] = 1;
-        }
-
-        // Transform the matrix into an upper triangle
-        gaussian(a, index);
-
-        // Update the matrix b[i][j] with the ratios stored
-        for (int i = 0; i < n - 1; ++i) {
-            for (int j = i + 1; j < n; ++j) {
-                for (int k = 0; k < n; ++k) {
-                    b[index[j]][k]
-                            -= a[index[j]][i] * b[index[i]][k];
-                }
-            }
-        }
-
-        // Perform backward substitutions
-        for (int i = 0; i < n; ++i) {
-            x[n - 1][i] = b[index[n - 1]][i] / a[index[n - 1]][n - 1];
-            for (int j = n - 2; j >= 0; --j) {
-                x[j][i] = b[index[j]][i];
-                for (int k = j + 1; k < n; ++k) {
-                    x[j][i] -= a[index[j]][k] * x[k][i];
-                }
-                x[j][i] /= a[index[j]][j];
-            }
-        }
-        return x;
+        return factor(mat).solve(objective);
     }
 
-// Method to carry out the partial-pivoting Gaussian
-// elimination.  Here index[] stores pivoting order.
-    private void gaussian(double a[][], int index[]) {
-        int n = index.length;
-        double c[] = new double[n];
-
-        // Initialize the index
-        for (int i = 0; i < n; ++i) {
-            index[i] = i;
-        }
-
-        // Find the rescaling factors, one from each row
-        for (int i = 0; i < n; ++i) {
-            double c1 = 0;
-            for (int j = 0; j < n; ++j) {
-                double c0 = Math.abs(a[i][j]);
-                if (c0 > c1) {
-                    c1 = c0;
-                }
-            }
-            c[i] = c1;
-        }
-
-        // Search the pivoting element from each column
-        int k = 0;
-        for (int j = 0; j < n - 1; ++j) {
-            double pi1 = 0;
-            for (int i = j; i < n; ++i) {
-                double pi0 = Math.abs(a[index[i]][j]);
-                pi0 /= c[index[i]];
-                if (pi0 > pi1) {
-                    pi1 = pi0;
-                    k = i;
-                }
-            }
-
-            // Interchange rows according to the pivoting order
-            int itmp = index[j];
-            index[j] = index[k];
-            index[k] = itmp;
-            for (int i = j + 1; i < n; ++i) {
-                double pj = a[index[i]][j] / a[index[j]][j];
-
-                // Record pivoting ratios below the diagonal
-                a[index[i]][j] = pj;
-
-                // Modify other elements accordingly
-                for (int l = j + 1; l < n; ++l) {
-                    a[index[i]][l] -= pj * a[index[j]][l];
-                }
-            }
-        }
+    /**
+     * Factors the matrix once so that many objectives can be solved against
+     * it, each in O(n^2)
+     */
+    public LUDecomposition factor(double[][] mat) throws Exception {
+        return LUDecomposition.factor(mat);
     }
     
     public static void main(String args[]) throws Exception {
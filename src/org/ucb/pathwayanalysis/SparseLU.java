@@ -0,0 +1,464 @@
+package org.ucb.pathwayanalysis;
+
+import java.util.Arrays;
+import org.ucb.act.utils.Metrics;
+
+/**
+ * A sparse LU factorization, P*A*Q = L*U, of a square SparseMatrix.
+ *
+ * The columns are first put in a fill-reducing order Q, by approximate
+ * minimum degree on the pattern of A^T*A, as COLAMD does, so the order
+ * stays good however the fill grows during elimination.  The factorization
+ * is then computed left-looking one column at a time (Gilbert-Peierls):
+ * each column of A is solved against the L computed so far, visiting only
+ * the entries reachable from its non-zeros, and the largest remaining entry
+ * is taken as the pivot.  The cost is proportional to the number of
+ * floating point operations rather than to n^3, which for stoichiometric
+ * matrices, with a handful of entries per reaction, is close to linear.
+ *
+ * @author J. Christopher Anderson
+ */
+public class SparseLU implements Factorization {
+
+    private static final Metrics.Counter SWAPS = Metrics.getShared().counter("sparselu.swaps");
+    private static final Metrics.Histogram FILL = Metrics.getShared().histogram("sparselu.fill");
+    private final int n;
+
+    //Column ordering, q[k] is the column of A used at step k
+    private final int[] q;
+
+    //Row permutation, pinv[i] is the step at which row i of A was pivotal
+    private final int[] pinv;
+
+    //Unit lower triangular L, the diagonal is stored first in each column
+    private final int[] lp;
+    private final int[] li;
+    private final double[] lx;
+
+    //Upper triangular U, the diagonal is stored last in each column
+    private final int[] up;
+    private final int[] ui;
+    private final double[] ux;
+
+    private SparseLU(int n, int[] q, int[] pinv, int[] lp, int[] li, double[] lx, int[] up, int[] ui, double[] ux) {
+        this.n = n;
+        this.q = q;
+        this.pinv = pinv;
+        this.lp = lp;
+        this.li = li;
+        this.lx = lx;
+        this.up = up;
+        this.ui = ui;
+        this.ux = ux;
+    }
+
+    public static SparseLU factor(SparseMatrix mat) throws Exception {
+        int n = mat.getCols();
+        if (mat.getRows() != n) {
+            throw new Exception("SparseLU requires a square matrix, got " + mat.getRows() + " x " + n);
+        }
+        int[] ap = mat.getColStarts();
+        int[] ai = mat.getRowIndices();
+        double[] ax = mat.getValues();
+
+        int[] q = orderColumns(mat);
+
+        //Guess the size of the factors, they grow as needed
+        int guess = 4 * mat.getNonZeros() + n;
+        int[] lp = new int[n + 1];
+        int[] li = new int[guess];
+        double[] lx = new double[guess];
+        int[] up = new int[n + 1];
+        int[] ui = new int[guess];
+        double[] ux = new double[guess];
+        int lnz = 0;
+        int unz = 0;
+
+        int[] pinv = new int[n];
+        Arrays.fill(pinv, -1);
+        double[] x = new double[n];
+        int[] xi = new int[n];
+        int[] stack = new int[n];
+        int[] pstack = new int[n];
+        int[] mark = new int[n];
+        Arrays.fill(mark, -1);
+
+        int swaps = 0;
+        for (int k = 0; k < n; k++) {
+            //Make room for a full column in L and U
+            if (lnz + n > li.length) {
+                int size = 2 * li.length + n;
+                li = Arrays.copyOf(li, size);
+                lx = Arrays.copyOf(lx, size);
+            }
+            if (unz + n > ui.length) {
+                int size = 2 * ui.length + n;
+                ui = Arrays.copyOf(ui, size);
+                ux = Arrays.copyOf(ux, size);
+            }
+            lp[k] = lnz;
+            up[k] = unz;
+
+            //Solve L*x = A(:,col) over the reachable rows only
+            int col = q[k];
+            int top = reach(lp, li, ap, ai, col, pinv, xi, stack, pstack, mark, k, n);
+            for (int p = ap[col]; p < ap[col + 1]; p++) {
+                x[ai[p]] = ax[p];
+            }
+            for (int px = top; px < n; px++) {
+                int j = xi[px];
+                int step = pinv[j];
+                if (step < 0) {
+                    continue;
+                }
+                //The diagonal of L is 1, so skip straight to the off-diagonals
+                for (int p = lp[step] + 1; p < lp[step + 1]; p++) {
+                    x[li[p]] -= lx[p] * x[j];
+                }
+            }
+
+            //Pick the largest unpivoted entry as the pivot, moving the rest into U
+            int ipiv = -1;
+            double best = -1;
+            for (int p = top; p < n; p++) {
+                int i = xi[p];
+                if (pinv[i] < 0) {
+                    double mag = Math.abs(x[i]);
+                    if (mag > best) {
+                        best = mag;
+                        ipiv = i;
+                    }
+                } else {
+                    ui[unz] = pinv[i];
+                    ux[unz] = x[i];
+                    unz++;
+                }
+            }
+            if (ipiv == -1 || best <= 0) {
+                throw new Exception("Matrix is singular at column " + col);
+            }
+
+            //The pivot goes last in U and first in L
+            if (ipiv != col) {
+                swaps++;
+            }
+            double pivot = x[ipiv];
+            ui[unz] = k;
+            ux[unz] = pivot;
+            unz++;
+            pinv[ipiv] = k;
+            li[lnz] = ipiv;
+            lx[lnz] = 1;
+            lnz++;
+            for (int p = top; p < n; p++) {
+                int i = xi[p];
+                if (pinv[i] < 0) {
+                    li[lnz] = i;
+                    lx[lnz] = x[i] / pivot;
+                    lnz++;
+                }
+                x[i] = 0;
+            }
+        }
+        lp[n] = lnz;
+        up[n] = unz;
+        SWAPS.add(swaps);
+        FILL.record(lnz + unz);
+
+        //Renumber the rows of L by pivot step
+        for (int p = 0; p < lnz; p++) {
+            li[p] = pinv[li[p]];
+        }
+
+        return new SparseLU(n, q, pinv, lp, Arrays.copyOf(li, lnz), Arrays.copyOf(lx, lnz),
+                up, Arrays.copyOf(ui, unz), Arrays.copyOf(ux, unz));
+    }
+
+    /**
+     * Orders the columns by approximate minimum degree on the pattern of
+     * A^T*A, without forming it, in the manner of COLAMD.  Each row of A is
+     * an element, a clique of the columns it touches.  Eliminating a column
+     * merges every element holding it into one new element, the pattern of
+     * the row of U it produces, and only the columns in that element have
+     * their degrees brought up to date, using the approximate external
+     * degree of AMD.  An element found to lie wholly inside the new one is
+     * absorbed.  Rows so dense that they would make every column look alike
+     * are left out of the ordering.
+     */
+    private static int[] orderColumns(SparseMatrix mat) {
+        int n = mat.getCols();
+        int m = mat.getRows();
+        int[] ap = mat.getColStarts();
+        int[] ai = mat.getRowIndices();
+
+        //Every row starts as an element, plus one more for each column eliminated
+        int[] rowCounts = new int[m];
+        for (int p = 0; p < ap[n]; p++) {
+            rowCounts[ai[p]]++;
+        }
+        int dense = Math.max(16, (int) (10 * Math.sqrt(n)));
+        int[][] elemCols = new int[m + n][];
+        int[] elemLen = new int[m + n];
+        boolean[] elemDead = new boolean[m + n];
+        for (int r = 0; r < m; r++) {
+            elemCols[r] = new int[rowCounts[r]];
+            elemDead[r] = rowCounts[r] > dense;
+        }
+        for (int j = 0; j < n; j++) {
+            for (int p = ap[j]; p < ap[j + 1]; p++) {
+                int r = ai[p];
+                elemCols[r][elemLen[r]++] = j;
+            }
+        }
+
+        //The elements holding each column, and its starting degree
+        int[][] colElems = new int[n][];
+        int[] colLen = new int[n];
+        DegreeLists lists = new DegreeLists(n);
+        for (int j = 0; j < n; j++) {
+            colElems[j] = new int[ap[j + 1] - ap[j] + 1];
+            long degree = 0;
+            for (int p = ap[j]; p < ap[j + 1]; p++) {
+                int r = ai[p];
+                if (!elemDead[r]) {
+                    colElems[j][colLen[j]++] = r;
+                    degree += elemLen[r] - 1;
+                }
+            }
+            lists.insert(j, (int) Math.min(degree, n - 1));
+        }
+
+        int[] q = new int[n];
+        boolean[] eliminated = new boolean[n];
+        int[] mark = new int[n];
+        Arrays.fill(mark, -1);
+        int[] w = new int[m + n];
+        int[] wMark = new int[m + n];
+        Arrays.fill(wMark, -1);
+        int elems = m;
+        for (int k = 0; k < n; k++) {
+            int piv = lists.removeMin();
+            q[k] = piv;
+            eliminated[piv] = true;
+
+            //Merge the elements holding the pivot into a new one
+            int e = elems++;
+            int[] cols = new int[8];
+            int len = 0;
+            for (int t = 0; t < colLen[piv]; t++) {
+                int old = colElems[piv][t];
+                if (elemDead[old]) {
+                    continue;
+                }
+                for (int s = 0; s < elemLen[old]; s++) {
+                    int j = elemCols[old][s];
+                    if (!eliminated[j] && mark[j] != k) {
+                        mark[j] = k;
+                        if (len == cols.length) {
+                            cols = Arrays.copyOf(cols, 2 * len);
+                        }
+                        cols[len++] = j;
+                    }
+                }
+                elemDead[old] = true;
+                elemCols[old] = null;
+            }
+            colElems[piv] = null;
+            elemCols[e] = cols;
+            elemLen[e] = len;
+
+            //The columns of each other element that lie outside the new one
+            for (int s = 0; s < len; s++) {
+                int i = cols[s];
+                for (int t = 0; t < colLen[i]; t++) {
+                    int f = colElems[i][t];
+                    if (elemDead[f]) {
+                        continue;
+                    }
+                    if (wMark[f] != k) {
+                        wMark[f] = k;
+                        w[f] = elemLen[f];
+                    }
+                    w[f]--;
+                }
+            }
+
+            //Bring the degree of each column in the new element up to date
+            for (int s = 0; s < len; s++) {
+                int i = cols[s];
+                long degree = len - 1;
+                int keep = 0;
+                for (int t = 0; t < colLen[i]; t++) {
+                    int f = colElems[i][t];
+                    if (elemDead[f]) {
+                        continue;
+                    }
+                    if (w[f] == 0) {
+                        elemDead[f] = true;
+                        elemCols[f] = null;
+                        continue;
+                    }
+                    degree += w[f];
+                    colElems[i][keep++] = f;
+                }
+                if (keep == colElems[i].length) {
+                    colElems[i] = Arrays.copyOf(colElems[i], 2 * keep + 1);
+                }
+                colElems[i][keep++] = e;
+                colLen[i] = keep;
+                lists.move(i, (int) Math.min(degree, n - k - 2));
+            }
+        }
+        return q;
+    }
+
+    /**
+     * The columns not yet eliminated, in doubly linked lists by degree
+     */
+    private static final class DegreeLists {
+        private final int[] head;
+        private final int[] next;
+        private final int[] prev;
+        private final int[] degree;
+        private int min = 0;
+
+        DegreeLists(int n) {
+            head = new int[Math.max(n, 1)];
+            next = new int[n];
+            prev = new int[n];
+            degree = new int[n];
+            Arrays.fill(head, -1);
+        }
+
+        void insert(int j, int d) {
+            degree[j] = d;
+            prev[j] = -1;
+            next[j] = head[d];
+            if (head[d] >= 0) {
+                prev[head[d]] = j;
+            }
+            head[d] = j;
+            min = Math.min(min, d);
+        }
+
+        void remove(int j) {
+            if (prev[j] >= 0) {
+                next[prev[j]] = next[j];
+            } else {
+                head[degree[j]] = next[j];
+            }
+            if (next[j] >= 0) {
+                prev[next[j]] = prev[j];
+            }
+        }
+
+        void move(int j, int d) {
+            remove(j);
+            insert(j, Math.max(d, 0));
+        }
+
+        int removeMin() {
+            while (head[min] < 0) {
+                min++;
+            }
+            int j = head[min];
+            remove(j);
+            return j;
+        }
+    }
+
+    /**
+     * Finds the rows reachable from the non-zeros of A(:,col) in the graph of
+     * L, returning them in topological order in xi[top..n-1].  A row is
+     * marked as visited when its mark equals the stamp of the current column.
+     */
+    private static int reach(int[] lp, int[] li, int[] ap, int[] ai, int col, int[] pinv,
+            int[] xi, int[] stack, int[] pstack, int[] mark, int stamp, int n) {
+        int top = n;
+        for (int p = ap[col]; p < ap[col + 1]; p++) {
+            if (mark[ai[p]] != stamp) {
+                top = dfs(ai[p], lp, li, pinv, top, xi, stack, pstack, mark, stamp);
+            }
+        }
+        return top;
+    }
+
+    private static int dfs(int start, int[] lp, int[] li, int[] pinv, int top,
+            int[] xi, int[] stack, int[] pstack, int[] mark, int stamp) {
+        int head = 0;
+        stack[0] = start;
+        while (head >= 0) {
+            int j = stack[head];
+            int step = pinv[j];
+            if (mark[j] != stamp) {
+                mark[j] = stamp;
+                pstack[head] = step < 0 ? 0 : lp[step] + 1;
+            }
+
+            //Descend into the first unvisited row of L(:,step), if any
+            boolean done = true;
+            int end = step < 0 ? 0 : lp[step + 1];
+            for (int p = pstack[head]; p < end; p++) {
+                int i = li[p];
+                if (mark[i] == stamp) {
+                    continue;
+                }
+                pstack[head] = p + 1;
+                head++;
+                stack[head] = i;
+                done = false;
+                break;
+            }
+
+            //All of j's descendants are placed, so j goes before them
+            if (done) {
+                head--;
+                top--;
+                xi[top] = j;
+            }
+        }
+        return top;
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public double[] solve(double[] b) {
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            y[pinv[i]] = b[i];
+        }
+
+        //Forward substitution with the unit lower triangle
+        for (int j = 0; j < n; j++) {
+            double yj = y[j];
+            if (yj == 0) {
+                continue;
+            }
+            for (int p = lp[j] + 1; p < lp[j + 1]; p++) {
+                y[li[p]] -= lx[p] * yj;
+            }
+        }
+
+        //Backward substitution with the upper triangle
+        for (int j = n - 1; j >= 0; j--) {
+            y[j] /= ux[up[j + 1] - 1];
+            double yj = y[j];
+            if (yj == 0) {
+                continue;
+            }
+            for (int p = up[j]; p < up[j + 1] - 1; p++) {
+                y[ui[p]] -= ux[p] * yj;
+            }
+        }
+
+        double[] out = new double[n];
+        for (int k = 0; k < n; k++) {
+            out[q[k]] = y[k];
+        }
+        return out;
+    }
+}
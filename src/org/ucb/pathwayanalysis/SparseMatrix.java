@@ -0,0 +1,165 @@
+package org.ucb.pathwayanalysis;
+
+import java.util.Arrays;
+
+/**
+ * An immutable sparse matrix in compressed sparse column (CSC) form.  The
+ * row indices of column j are rowIndices[colStarts[j]] to
+ * rowIndices[colStarts[j+1] - 1], in increasing order, with the matching
+ * entries in values.
+ *
+ * @author J. Christopher Anderson
+ */
+public class SparseMatrix {
+    private final int rows;
+    private final int cols;
+    private final int[] colStarts;
+    private final int[] rowIndices;
+    private final double[] values;
+
+    public SparseMatrix(int rows, int cols, int[] colStarts, int[] rowIndices, double[] values) {
+        this.rows = rows;
+        this.cols = cols;
+        this.colStarts = colStarts;
+        this.rowIndices = rowIndices;
+        this.values = values;
+    }
+
+    /**
+     * Builds a matrix from (row, col, value) triplets in any order.
+     * Duplicate entries are summed and entries that sum to zero are dropped.
+     */
+    public static SparseMatrix fromTriplets(int rows, int cols, int[] ti, int[] tj, double[] tx, int count) {
+        //Count the entries in each column
+        int[] colStarts = new int[cols + 1];
+        for (int p = 0; p < count; p++) {
+            colStarts[tj[p] + 1]++;
+        }
+        for (int j = 0; j < cols; j++) {
+            colStarts[j + 1] += colStarts[j];
+        }
+
+        //Scatter the triplets into their columns
+        int[] next = Arrays.copyOf(colStarts, cols);
+        int[] ri = new int[count];
+        double[] rx = new double[count];
+        for (int p = 0; p < count; p++) {
+            int dest = next[tj[p]]++;
+            ri[dest] = ti[p];
+            rx[dest] = tx[p];
+        }
+
+        //Sort each column by row, merging duplicates and dropping zeros
+        int[] outStarts = new int[cols + 1];
+        int[] outRows = new int[count];
+        double[] outVals = new double[count];
+        int nz = 0;
+        for (int j = 0; j < cols; j++) {
+            int start = colStarts[j];
+            int end = colStarts[j + 1];
+            sortByRow(ri, rx, start, end);
+            outStarts[j] = nz;
+            for (int p = start; p < end; p++) {
+                if (nz > outStarts[j] && outRows[nz - 1] == ri[p]) {
+                    outVals[nz - 1] += rx[p];
+                } else {
+                    outRows[nz] = ri[p];
+                    outVals[nz] = rx[p];
+                    nz++;
+                }
+                if (outVals[nz - 1] == 0) {
+                    nz--;
+                }
+            }
+        }
+        outStarts[cols] = nz;
+        return new SparseMatrix(rows, cols, outStarts, Arrays.copyOf(outRows, nz), Arrays.copyOf(outVals, nz));
+    }
+
+    //Insertion sort, columns of a stoichiometric matrix only hold a handful of entries
+    private static void sortByRow(int[] ri, double[] rx, int start, int end) {
+        for (int p = start + 1; p < end; p++) {
+            int row = ri[p];
+            double val = rx[p];
+            int q = p - 1;
+            while (q >= start && ri[q] > row) {
+                ri[q + 1] = ri[q];
+                rx[q + 1] = rx[q];
+                q--;
+            }
+            ri[q + 1] = row;
+            rx[q + 1] = val;
+        }
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getNonZeros() {
+        return colStarts[cols];
+    }
+
+    public int[] getColStarts() {
+        return colStarts;
+    }
+
+    public int[] getRowIndices() {
+        return rowIndices;
+    }
+
+    public double[] getValues() {
+        return values;
+    }
+
+    public double get(int row, int col) {
+        for (int p = colStarts[col]; p < colStarts[col + 1]; p++) {
+            if (rowIndices[p] == row) {
+                return values[p];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the same entries in a matrix of a different (not smaller) shape
+     */
+    public SparseMatrix reshape(int newRows, int newCols) {
+        int[] starts = Arrays.copyOf(colStarts, newCols + 1);
+        for (int j = cols + 1; j <= newCols; j++) {
+            starts[j] = colStarts[cols];
+        }
+        return new SparseMatrix(newRows, newCols, starts, rowIndices, values);
+    }
+
+    /**
+     * @return this matrix times the vector x
+     */
+    public double[] multiply(double[] x) {
+        double[] out = new double[rows];
+        for (int j = 0; j < cols; j++) {
+            double xj = x[j];
+            if (xj == 0) {
+                continue;
+            }
+            for (int p = colStarts[j]; p < colStarts[j + 1]; p++) {
+                out[rowIndices[p]] += values[p] * xj;
+            }
+        }
+        return out;
+    }
+
+    public double[][] toDense(int n) {
+        double[][] out = new double[Math.max(n, rows)][Math.max(n, cols)];
+        for (int j = 0; j < cols; j++) {
+            for (int p = colStarts[j]; p < colStarts[j + 1]; p++) {
+                out[rowIndices[p]][j] = values[p];
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,158 @@
+package org.ucb.pathwayanalysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.CompiledPathway;
+import org.ucb.pathwayanalysis.model.CompiledRxn;
+import org.ucb.pathwayanalysis.model.Pathway;
+
+/**
+ * The stoichiometric matrix of a Pathway, with one row per intermediate
+ * (any chemical that is neither a cofactor nor an input) and one column per
+ * reaction.  Substrates are entered as negative coefficients and products
+ * as positive ones.  It is held sparse, as each reaction only touches a
+ * handful of chemicals.
+ *
+ * @author J. Christopher Anderson
+ */
+public class StoichiometricMatrix {
+    private final CompiledPathway pathway;
+    private final int[] chemToRow;
+    private final int[] rowToChem;
+    private final SparseMatrix matrix;
+
+    public StoichiometricMatrix(Pathway path, Set<String> cofactors) {
+        this(CompiledPathway.compile(path, cofactors));
+    }
+
+    public StoichiometricMatrix(CompiledPathway path) {
+        this.pathway = path;
+
+        //Pull out all non-cofactor, non input chems that take part in a reaction and fix them to a row
+        int chemCount = path.getChemCount();
+        int[] toRow = new int[chemCount];
+        Arrays.fill(toRow, -1);
+        int[] toChem = new int[chemCount];
+        int rows = 0;
+        int entries = 0;
+        for (int r = 0; r < path.getRxnCount(); r++) {
+            CompiledRxn rxn = path.getRxn(r);
+            for (int k = 0; k < rxn.size(); k++) {
+                int chem = rxn.getChem(k);
+                if (path.isCofactor(chem) || path.isInput(chem)) {
+                    continue;
+                }
+                if (toRow[chem] < 0) {
+                    toRow[chem] = rows;
+                    toChem[rows] = chem;
+                    rows++;
+                }
+                entries++;
+            }
+        }
+
+        //Gather the coefficients of each reaction as triplets
+        int[] ti = new int[entries];
+        int[] tj = new int[entries];
+        double[] tx = new double[entries];
+        int count = 0;
+        for (int r = 0; r < path.getRxnCount(); r++) {
+            CompiledRxn rxn = path.getRxn(r);
+            for (int k = 0; k < rxn.size(); k++) {
+                int row = toRow[rxn.getChem(k)];
+                if (row < 0) {
+                    continue;
+                }
+                ti[count] = row;
+                tj[count] = r;
+                tx[count] = rxn.getCoeff(k);
+                count++;
+            }
+        }
+
+        this.chemToRow = toRow;
+        this.rowToChem = Arrays.copyOf(toChem, rows);
+        this.matrix = SparseMatrix.fromTriplets(rows, path.getRxnCount(), ti, tj, tx, count);
+    }
+
+    public CompiledPathway getPathway() {
+        return pathway;
+    }
+
+    public int getChemCount() {
+        return rowToChem.length;
+    }
+
+    public int getRxnCount() {
+        return matrix.getCols();
+    }
+
+    /**
+     * @return the intermediates in row order
+     */
+    public List<Chem> getIntermediates() {
+        List<Chem> out = new ArrayList<>();
+        for (int chem : rowToChem) {
+            out.add(pathway.getChem(chem));
+        }
+        return Collections.unmodifiableList(out);
+    }
+
+    /**
+     * @return the row of a chemical, or -1 if it is not an intermediate
+     */
+    public int getIndex(Chem achem) {
+        int chem = pathway.indexOf(achem);
+        return chem < 0 ? -1 : chemToRow[chem];
+    }
+
+    /**
+     * @return the row of the pathway's chemical with this index, or -1
+     */
+    public int getRow(int chem) {
+        return chemToRow[chem];
+    }
+
+    /**
+     * @return the pathway's chemical index of a row
+     */
+    public int getRowChem(int row) {
+        return rowToChem[row];
+    }
+
+    /**
+     * @return the chemicals x reactions matrix
+     */
+    public SparseMatrix getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * @return the n x n square system, padded with empty rows or columns
+     */
+    public SparseMatrix getSquareMatrix(int n) {
+        return matrix.reshape(n, n);
+    }
+
+    /**
+     * @return an objective vector of length n with a 1 at each output's row
+     */
+    public double[] getObjective(int n) throws Exception {
+        double[] objectiveFunc = new double[n];
+        for (int chem = 0; chem < pathway.getChemCount(); chem++) {
+            if (!pathway.isOutput(chem)) {
+                continue;
+            }
+            int row = chemToRow[chem];
+            if (row < 0) {
+                throw new Exception("Output is not an intermediate: " + pathway.getChem(chem).getName());
+            }
+            objectiveFunc[row] = 1;
+        }
+        return objectiveFunc;
+    }
+}
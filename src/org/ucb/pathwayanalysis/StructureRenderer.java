@@ -0,0 +1,307 @@
+package org.ucb.pathwayanalysis;
+
+import chemaxon.formats.MolExporter;
+import chemaxon.formats.MolImporter;
+import chemaxon.struc.Molecule;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import org.ucb.act.utils.ChemAxonUtils;
+import org.ucb.act.utils.FileUtils;
+import org.ucb.pathwayanalysis.model.Chem;
+import org.ucb.pathwayanalysis.model.Pathway;
+import org.ucb.pathwayanalysis.model.Rxn;
+
+/**
+ * Renders chemical structures through ChemAxon on a set of worker threads.
+ * Molecules are fed to the workers through a bounded queue, so a caller
+ * submitting thousands of them blocks rather than piling up work, and each
+ * image is written through a FileChannel that is closed as soon as it is
+ * written.  Every submission returns a future that completes with the image
+ * or with the reason it could not be rendered.
+ *
+ * renderPathway() draws a whole Pathway as one SVG sheet, a row per
+ * reaction with its substrates and products, rendering the structures in
+ * parallel.  A structure that fails to render is drawn as its name in an
+ * empty box, so one bad InChI does not lose the sheet.
+ *
+ * @author J. Christopher Anderson
+ */
+public class StructureRenderer implements AutoCloseable {
+
+    /**
+     * The most molecules waiting for a worker
+     */
+    public static final int QUEUE_CAPACITY = 64;
+
+    //Layout of a pathway sheet
+    private static final int CELL_WIDTH = 180;
+    private static final int CELL_HEIGHT = 140;
+    private static final int IMAGE_WIDTH = 170;
+    private static final int IMAGE_HEIGHT = 110;
+    private static final int OPERATOR_WIDTH = 40;
+    private static final int MARGIN = 10;
+
+    //Tells a worker to stop
+    private static final Job STOP = new Job(null, null, null);
+
+    private final BlockingQueue<Job> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean closed = false;
+
+    public StructureRenderer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public StructureRenderer(int threads) {
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "structure-renderer");
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Queues a molecule, in any format ChemAxon reads, to be rendered in a
+     * ChemAxon image format such as "svg:w300,h150" and, if a file is
+     * given, written to it.  Blocks while the queue is full.
+     *
+     * @throws IllegalStateException if the renderer has been closed
+     */
+    public CompletableFuture<byte[]> submit(String molecule, String format, Path file) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("StructureRenderer is closed");
+        }
+        Job job = new Job(molecule, format, file);
+        queue.put(job);
+
+        //A close() that raced with this call may have stopped the workers already
+        if (closed && queue.remove(job)) {
+            job.result.completeExceptionally(new IllegalStateException("StructureRenderer is closed"));
+        }
+        return job.result;
+    }
+
+    /**
+     * Renders each chemical to a file in a directory, named after the
+     * chemical, with the extension of the format
+     *
+     * @return the future of each chemical's image, by name
+     */
+    public Map<String, CompletableFuture<byte[]>> renderAll(Collection<Chem> chems, String dir, String format) throws Exception {
+        Files.createDirectories(Paths.get(dir));
+        String extension = format.split(":")[0];
+        Map<String, CompletableFuture<byte[]>> out = new LinkedHashMap<>();
+        for (Chem achem : chems) {
+            if (out.containsKey(achem.getName())) {
+                continue;
+            }
+            Path file = Paths.get(dir, fileName(achem.getName()) + "." + extension);
+            out.put(achem.getName(), submit(achem.getInchi(), format, file));
+        }
+        return out;
+    }
+
+    /**
+     * Draws every reaction of a pathway as a row of one SVG sheet and
+     * writes it to a file
+     */
+    public void renderPathway(Pathway path, String file) throws Exception {
+        //Render each distinct chemical once
+        String format = "svg:w" + IMAGE_WIDTH + ",h" + IMAGE_HEIGHT;
+        Map<String, CompletableFuture<byte[]>> images = new LinkedHashMap<>();
+        for (Rxn rxn : path.getReactions()) {
+            List<Chem> chems = new ArrayList<>(rxn.getSubstrates().keySet());
+            chems.addAll(rxn.getProducts().keySet());
+            for (Chem achem : chems) {
+                if (!images.containsKey(achem.getName())) {
+                    images.put(achem.getName(), submit(achem.getInchi(), format, null));
+                }
+            }
+        }
+
+        StringBuilder body = new StringBuilder();
+        int width = 0;
+        int y = MARGIN + 30;
+        for (Rxn rxn : path.getReactions()) {
+            int x = MARGIN;
+            x = drawSide(rxn.getSubstrates(), images, x, y, body);
+            text(body, x + OPERATOR_WIDTH / 2, y + IMAGE_HEIGHT / 2, "\u2192", 24);
+            x += OPERATOR_WIDTH;
+            x = drawSide(rxn.getProducts(), images, x, y, body);
+            width = Math.max(width, x + MARGIN);
+            y += CELL_HEIGHT;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(width);
+        sb.append("\" height=\"").append(y + MARGIN).append("\">\n");
+        sb.append("<rect width=\"100%\" height=\"100%\" fill=\"white\"/>\n");
+        text(sb, width / 2, MARGIN + 16, path.getName(), 18);
+        sb.append(body);
+        sb.append("</svg>\n");
+        FileUtils.writeBytes(Paths.get(file), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Draws one side of a reaction starting at x, separating the chemicals
+     * with plus signs
+     * @return the x after the last chemical
+     */
+    private int drawSide(Map<Chem, Integer> side, Map<String, CompletableFuture<byte[]>> images, int x, int y, StringBuilder sb) {
+        boolean first = true;
+        for (Map.Entry<Chem, Integer> entry : side.entrySet()) {
+            if (!first) {
+                text(sb, x + OPERATOR_WIDTH / 2, y + IMAGE_HEIGHT / 2, "+", 24);
+                x += OPERATOR_WIDTH;
+            }
+            first = false;
+
+            String name = entry.getKey().getName();
+            String svg = null;
+            try {
+                svg = embeddable(new String(images.get(name).join(), StandardCharsets.UTF_8), x, y);
+            } catch (Exception err) {
+                svg = null;
+            }
+            if (svg == null) {
+                sb.append("<rect x=\"").append(x).append("\" y=\"").append(y);
+                sb.append("\" width=\"").append(IMAGE_WIDTH).append("\" height=\"").append(IMAGE_HEIGHT);
+                sb.append("\" fill=\"none\" stroke=\"#999\"/>\n");
+            } else {
+                sb.append(svg).append("\n");
+            }
+            String label = entry.getValue() > 1 ? entry.getValue() + " " + name : name;
+            text(sb, x + CELL_WIDTH / 2, y + IMAGE_HEIGHT + 20, label, 13);
+            x += CELL_WIDTH;
+        }
+        return x;
+    }
+
+    /**
+     * @return a rendered SVG image stripped of its prolog and placed at x, y,
+     * or null if it is not an SVG image
+     */
+    private static String embeddable(String svg, int x, int y) {
+        int start = svg.indexOf("<svg");
+        if (start < 0) {
+            return null;
+        }
+        return "<svg x=\"" + x + "\" y=\"" + y + "\" " + svg.substring(start + 4).trim();
+    }
+
+    private static void text(StringBuilder sb, int x, int y, String text, int size) {
+        sb.append("<text x=\"").append(x).append("\" y=\"").append(y);
+        sb.append("\" font-family=\"sans-serif\" font-size=\"").append(size).append("\" text-anchor=\"middle\">");
+        sb.append(text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;"));
+        sb.append("</text>\n");
+    }
+
+    private static String fileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9+,()\\-]", "_");
+    }
+
+    private void work() {
+        while (true) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException err) {
+                return;
+            }
+            if (job == STOP) {
+                return;
+            }
+            try {
+                Molecule mol = MolImporter.importMol(job.molecule);
+                byte[] image = MolExporter.exportToBinFormat(mol, job.format);
+                if (job.file != null) {
+                    FileUtils.writeBytes(job.file, image);
+                }
+                job.result.complete(image);
+            } catch (Throwable err) {
+                //An Error from ChemAxon must still complete the future, and the worker carries on
+                job.result.completeExceptionally(err);
+            }
+        }
+    }
+
+    /**
+     * Stops the workers once every queued molecule has been rendered, after
+     * which submit() fails.  If the calling thread is interrupted while
+     * waiting, the workers are interrupted too, anything still queued fails,
+     * and close() returns with the interrupt still set.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            for (int i = 0; i < workers.size(); i++) {
+                queue.put(STOP);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException err) {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            Thread.currentThread().interrupt();
+        }
+
+        //Fail anything submitted behind the stops
+        Job job;
+        while ((job = queue.poll()) != null) {
+            if (job != STOP) {
+                job.result.completeExceptionally(new IllegalStateException("StructureRenderer is closed"));
+            }
+        }
+    }
+
+    private static final class Job {
+        private final String molecule;
+        private final String format;
+        private final Path file;
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        Job(String molecule, String format, Path file) {
+            this.molecule = molecule;
+            this.format = format;
+            this.file = file;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ChemAxonUtils.license();
+        String file = args.length > 0 ? args[0] : "data/pimar.txt";
+        Pathway path = new PathwayParser().run(FileUtils.readFile(file));
+
+        try (StructureRenderer renderer = new StructureRenderer()) {
+            long start = System.currentTimeMillis();
+            Map<String, CompletableFuture<byte[]>> images = renderer.renderAll(path.getChemicals().values(), "images", "png:w300,h150");
+            int failed = 0;
+            for (Map.Entry<String, CompletableFuture<byte[]>> entry : images.entrySet()) {
+                try {
+                    entry.getValue().join();
+                } catch (Exception err) {
+                    System.err.println("Unable to render " + entry.getKey());
+                    failed++;
+                }
+            }
+            System.out.println((images.size() - failed) + " of " + images.size() + " structures in " + (System.currentTimeMillis() - start) + " ms");
+
+            renderer.renderPathway(path, "images/pathway.svg");
+        }
+    }
+}
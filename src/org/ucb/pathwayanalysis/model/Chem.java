@@ -1,18 +1,42 @@
 package org.ucb.pathwayanalysis.model;
 
 /**
+ * A chemical, identified by its InChI.  Chems with the same InChI are equal
+ * even if they are named differently in different pathways.  Chemicals that
+ * only have a placeholder instead of a real InChI, as in abstract examples,
+ * are identified by name.
+ *
+ * Chems created through a ChemRegistry also carry a dense integer id,
+ * shared by every Chem with the same InChI in that registry, that can be
+ * used to index arrays across pathways.  Ids from different registries are
+ * unrelated, so only Chems from the same registry are compared by id.
  *
  * @author J. Christopher Anderson
  */
 public class Chem {
+    private final ChemRegistry registry;
+    private final int id;
     private final String name;
     private final String inchi;
     
     public Chem(String name, String inchi) {
+        this(null, -1, name, inchi);
+    }
+
+    Chem(ChemRegistry registry, int id, String name, String inchi) {
+        this.registry = registry;
+        this.id = id;
         this.name = name;
         this.inchi = inchi;
     }
 
+    /**
+     * @return the id assigned by the ChemRegistry, or -1 if not registered
+     */
+    public int getId() {
+        return id;
+    }
+
     public String getName() {
         return name;
     }
@@ -20,4 +44,38 @@ public class Chem {
     public String getInchi() {
         return inchi;
     }
+
+    /**
+     * @return the InChI, or the name if there is no real InChI
+     */
+    public String getKey() {
+        return keyOf(name, inchi);
+    }
+
+    static String keyOf(String name, String inchi) {
+        if (inchi != null && inchi.startsWith("InChI=")) {
+            return inchi;
+        }
+        return "name:" + name;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Chem)) {
+            return false;
+        }
+        Chem other = (Chem) obj;
+        if (registry != null && registry == other.registry) {
+            return id == other.id;
+        }
+        return getKey().equals(other.getKey());
+    }
+
+    @Override
+    public int hashCode() {
+        return getKey().hashCode();
+    }
 }
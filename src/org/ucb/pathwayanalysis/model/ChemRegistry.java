@@ -0,0 +1,96 @@
+package org.ucb.pathwayanalysis.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry that interns chemicals by InChI and numbers them densely from
+ * 0.  Every pathway parsed through the shared registry refers to ATP by the
+ * same id and the same InChI String, so per-chemical data can be kept in
+ * arrays indexed by id and memory does not grow with the number of pathway
+ * files.  The registry is safe to use from many threads at once.
+ *
+ * The first name seen for an InChI becomes its canonical name, but intern()
+ * keeps the name used by the caller so each pathway's naming is preserved.
+ *
+ * @author J. Christopher Anderson
+ */
+public class ChemRegistry {
+
+    private static final ChemRegistry shared = new ChemRegistry();
+
+    private final ConcurrentHashMap<String, Chem> keyToChem = new ConcurrentHashMap<>();
+
+    //Written only under the lock, and republished through the volatile field
+    private volatile Chem[] idToChem = new Chem[256];
+    private int count = 0;
+
+    /**
+     * @return the registry used by the PathwayParser
+     */
+    public static ChemRegistry getShared() {
+        return shared;
+    }
+
+    /**
+     * Registers a chemical if it is new.
+     *
+     * @return a Chem carrying the chemical's id and shared InChI String,
+     * under the given name
+     */
+    public Chem intern(String name, String inchi) {
+        String key = Chem.keyOf(name, inchi);
+        Chem canonical = keyToChem.get(key);
+        if (canonical == null) {
+            canonical = register(key, name, inchi);
+        }
+        if (canonical.getName().equals(name)) {
+            return canonical;
+        }
+        return new Chem(this, canonical.getId(), name, canonical.getInchi());
+    }
+
+    private synchronized Chem register(String key, String name, String inchi) {
+        Chem existing = keyToChem.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        Chem[] table = idToChem;
+        if (count == table.length) {
+            table = Arrays.copyOf(table, 2 * table.length);
+        }
+        Chem achem = new Chem(this, count, name, inchi);
+        table[count] = achem;
+        count++;
+        idToChem = table;
+        keyToChem.put(key, achem);
+        return achem;
+    }
+
+    /**
+     * @return the canonical Chem for an id
+     */
+    public Chem get(int id) {
+        Chem[] table = idToChem;
+        if (id < 0 || id >= table.length || table[id] == null) {
+            throw new IllegalArgumentException("No chemical with id " + id);
+        }
+        return table[id];
+    }
+
+    /**
+     * @return the id of the chemical with this InChI, or -1 if unknown
+     */
+    public int getId(String inchi) {
+        Chem achem = keyToChem.get(inchi);
+        return achem == null ? -1 : achem.getId();
+    }
+
+    /**
+     * @return the number of chemicals registered, ids run from 0 to size-1
+     */
+    public int size() {
+        return keyToChem.size();
+    }
+}
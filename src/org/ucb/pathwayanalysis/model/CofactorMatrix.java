@@ -0,0 +1,73 @@
+package org.ucb.pathwayanalysis.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A dense pathway x cofactor table of net cofactor balances, as produced by
+ * the CofactorLedger.  Negative values are consumed, positive produced.
+ * Pathways that could not be balanced have a row of zeros and an error.
+ *
+ * @author J. Christopher Anderson
+ */
+public class CofactorMatrix {
+    private final List<String> pathways;
+    private final List<String> cofactors;
+    private final int[] values;
+    private final String[] errors;
+
+    /**
+     * @param values the balances in row-major order
+     * @param errors the reason each pathway failed, null where it succeeded
+     */
+    public CofactorMatrix(List<String> pathways, List<String> cofactors, int[] values, String[] errors) {
+        this.pathways = Collections.unmodifiableList(pathways);
+        this.cofactors = Collections.unmodifiableList(cofactors);
+        this.values = values;
+        this.errors = errors;
+    }
+
+    public List<String> getPathways() {
+        return pathways;
+    }
+
+    public List<String> getCofactors() {
+        return cofactors;
+    }
+
+    public int get(int pathway, int cofactor) {
+        return values[pathway * cofactors.size() + cofactor];
+    }
+
+    /**
+     * @return why the pathway could not be balanced, or null
+     */
+    public String getError(int pathway) {
+        return errors[pathway];
+    }
+
+    /**
+     * @return the table as tab-separated text with a header row
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("pathway");
+        for (String cofactor : cofactors) {
+            sb.append("\t").append(cofactor);
+        }
+        sb.append("\n");
+        for (int i = 0; i < pathways.size(); i++) {
+            sb.append(pathways.get(i));
+            if (errors[i] != null) {
+                sb.append("\t").append(errors[i]).append("\n");
+                continue;
+            }
+            for (int j = 0; j < cofactors.size(); j++) {
+                sb.append("\t").append(get(i, j));
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+}
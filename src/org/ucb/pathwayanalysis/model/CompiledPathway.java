@@ -0,0 +1,166 @@
+package org.ucb.pathwayanalysis.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable, array-based form of a Pathway for the analyses to run on.
+ * Chemicals are numbered 0 to getChemCount()-1 in the order they first
+ * appear in the reactions (followed by any inputs or outputs that no
+ * reaction uses), reactions are CompiledRxns over those numbers, and
+ * whether each chemical is an input, output or cofactor is held in
+ * bitmasks.
+ *
+ * @author J. Christopher Anderson
+ */
+public class CompiledPathway {
+    private final String name;
+    private final Chem[] chems;
+    private final Map<Chem, Integer> chemToIndex;
+    private final CompiledRxn[] rxns;
+    private final long[] inputMask;
+    private final long[] outputMask;
+    private final long[] cofactorMask;
+
+    public CompiledPathway(String name, Chem[] chems, CompiledRxn[] rxns, long[] inputMask, long[] outputMask, long[] cofactorMask) {
+        this.name = name;
+        this.chems = chems;
+        this.rxns = rxns;
+        this.inputMask = inputMask;
+        this.outputMask = outputMask;
+        this.cofactorMask = cofactorMask;
+        Map<Chem, Integer> indices = new HashMap<>();
+        for (int i = 0; i < chems.length; i++) {
+            indices.put(chems[i], i);
+        }
+        this.chemToIndex = Collections.unmodifiableMap(indices);
+    }
+
+    /**
+     * Compiles a Pathway, treating chemicals with the given names as
+     * cofactors
+     */
+    public static CompiledPathway compile(Pathway path, Set<String> cofactors) {
+        List<Chem> chems = new ArrayList<>();
+        Map<Chem, Integer> indices = new HashMap<>();
+
+        CompiledRxn[] rxns = new CompiledRxn[path.getReactions().size()];
+        for (int r = 0; r < rxns.length; r++) {
+            Rxn rxn = path.getReactions().get(r);
+            int size = rxn.getSubstrates().size() + rxn.getProducts().size();
+            int[] rxnChems = new int[size];
+            int[] coeffs = new int[size];
+            int k = 0;
+            for (Map.Entry<Chem, Integer> entry : rxn.getSubstrates().entrySet()) {
+                rxnChems[k] = indexOf(entry.getKey(), chems, indices);
+                coeffs[k] = -1 * entry.getValue();
+                k++;
+            }
+            for (Map.Entry<Chem, Integer> entry : rxn.getProducts().entrySet()) {
+                rxnChems[k] = indexOf(entry.getKey(), chems, indices);
+                coeffs[k] = entry.getValue();
+                k++;
+            }
+            rxns[r] = new CompiledRxn(rxnChems, coeffs);
+        }
+        for (Chem achem : path.getInputs()) {
+            indexOf(achem, chems, indices);
+        }
+        for (Chem achem : path.getOutputs()) {
+            indexOf(achem, chems, indices);
+        }
+
+        int words = (chems.size() + 63) >>> 6;
+        long[] inputMask = new long[words];
+        long[] outputMask = new long[words];
+        long[] cofactorMask = new long[words];
+        for (int i = 0; i < chems.size(); i++) {
+            Chem achem = chems.get(i);
+            if (path.getInputs().contains(achem)) {
+                inputMask[i >>> 6] |= 1L << i;
+            }
+            if (path.getOutputs().contains(achem)) {
+                outputMask[i >>> 6] |= 1L << i;
+            }
+            if (cofactors.contains(achem.getName())) {
+                cofactorMask[i >>> 6] |= 1L << i;
+            }
+        }
+
+        return new CompiledPathway(path.getName(), chems.toArray(new Chem[chems.size()]), rxns,
+                inputMask, outputMask, cofactorMask);
+    }
+
+    private static int indexOf(Chem achem, List<Chem> chems, Map<Chem, Integer> indices) {
+        Integer index = indices.get(achem);
+        if (index == null) {
+            index = chems.size();
+            indices.put(achem, index);
+            chems.add(achem);
+        }
+        return index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getChemCount() {
+        return chems.length;
+    }
+
+    public Chem getChem(int index) {
+        return chems[index];
+    }
+
+    /**
+     * @return the ChemRegistry id of a chemical, -1 if it is not registered
+     */
+    public int getChemId(int index) {
+        return chems[index].getId();
+    }
+
+    /**
+     * @return the index of a chemical, or -1 if it is not in this pathway
+     */
+    public int indexOf(Chem achem) {
+        Integer index = chemToIndex.get(achem);
+        return index == null ? -1 : index;
+    }
+
+    public int getRxnCount() {
+        return rxns.length;
+    }
+
+    public CompiledRxn getRxn(int r) {
+        return rxns[r];
+    }
+
+    public boolean isInput(int index) {
+        return (inputMask[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public boolean isOutput(int index) {
+        return (outputMask[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public boolean isCofactor(int index) {
+        return (cofactorMask[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public long[] getInputMask() {
+        return inputMask.clone();
+    }
+
+    public long[] getOutputMask() {
+        return outputMask.clone();
+    }
+
+    public long[] getCofactorMask() {
+        return cofactorMask.clone();
+    }
+}
@@ -0,0 +1,40 @@
+package org.ucb.pathwayanalysis.model;
+
+/**
+ * A reaction compiled to parallel arrays: the index of each chemical within
+ * its CompiledPathway and its signed stoichiometry, negative for substrates
+ * and positive for products.  Iterating one needs no boxing, hashing or
+ * allocation.
+ *
+ * @author J. Christopher Anderson
+ */
+public class CompiledRxn {
+    private final int[] chems;
+    private final int[] coeffs;
+
+    public CompiledRxn(int[] chems, int[] coeffs) {
+        this.chems = chems;
+        this.coeffs = coeffs;
+    }
+
+    /**
+     * @return the number of substrate and product entries
+     */
+    public int size() {
+        return chems.length;
+    }
+
+    /**
+     * @return the pathway-local index of the k-th chemical
+     */
+    public int getChem(int k) {
+        return chems[k];
+    }
+
+    /**
+     * @return the stoichiometry of the k-th chemical, negative if consumed
+     */
+    public int getCoeff(int k) {
+        return coeffs[k];
+    }
+}
@@ -0,0 +1,122 @@
+package org.ucb.pathwayanalysis.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The feedstock cost and elemental demand of each pathway in a library, as
+ * produced by FeedstockCost: the dollars of media chemicals per kg of
+ * product, and the kg of each element drawn from the feedstocks per kg of
+ * product, alongside the kg of each element per kg of dry biomass for
+ * comparison.  Pathways that could not be costed have an error instead.
+ *
+ * @author J. Christopher Anderson
+ */
+public class FeedstockTable {
+    private final List<String> pathways;
+    private final List<String> elements;
+    private final double[] biomass;
+    private final double[] costs;
+    private final double[] demands;
+    private final String[] errors;
+
+    /**
+     * @param biomass the fraction of dry biomass that is each element
+     * @param demands the elemental demands in row-major order
+     * @param errors the reason each pathway failed, null where it succeeded
+     */
+    public FeedstockTable(List<String> pathways, List<String> elements, double[] biomass, double[] costs, double[] demands, String[] errors) {
+        this.pathways = Collections.unmodifiableList(pathways);
+        this.elements = Collections.unmodifiableList(elements);
+        this.biomass = biomass;
+        this.costs = costs;
+        this.demands = demands;
+        this.errors = errors;
+    }
+
+    public List<String> getPathways() {
+        return pathways;
+    }
+
+    public List<String> getElements() {
+        return elements;
+    }
+
+    /**
+     * @return dollars of feedstock per kg of product
+     */
+    public double getCost(int pathway) {
+        return costs[pathway];
+    }
+
+    /**
+     * @return kg of the element taken up per kg of product
+     */
+    public double getDemand(int pathway, int element) {
+        return demands[pathway * elements.size() + element];
+    }
+
+    /**
+     * @return kg of the element per kg of dry biomass
+     */
+    public double getBiomass(int element) {
+        return biomass[element];
+    }
+
+    /**
+     * @return why the pathway could not be costed, or null
+     */
+    public String getError(int pathway) {
+        return errors[pathway];
+    }
+
+    /**
+     * @return the pathways from cheapest to dearest, those that failed last
+     */
+    public List<Integer> rank() {
+        List<Integer> out = new ArrayList<>();
+        for (int i = 0; i < pathways.size(); i++) {
+            out.add(i);
+        }
+        out.sort((a, b) -> {
+            if ((errors[a] == null) != (errors[b] == null)) {
+                return errors[a] == null ? -1 : 1;
+            }
+            return Double.compare(costs[a], costs[b]);
+        });
+        return out;
+    }
+
+    /**
+     * @return the table, cheapest first, as tab-separated text with a
+     * header row and a final row for biomass
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("pathway\t$ per kg");
+        for (String element : elements) {
+            sb.append("\t").append(element);
+        }
+        sb.append("\n");
+        for (int i : rank()) {
+            sb.append(pathways.get(i));
+            if (errors[i] != null) {
+                sb.append("\t").append(errors[i]).append("\n");
+                continue;
+            }
+            sb.append("\t").append(String.format("%.3f", costs[i]));
+            for (int e = 0; e < elements.size(); e++) {
+                sb.append("\t").append(String.format("%.3f", getDemand(i, e)));
+            }
+            sb.append("\n");
+        }
+        sb.append("biomass\t");
+        for (int e = 0; e < elements.size(); e++) {
+            sb.append("\t").append(String.format("%.3f", biomass[e]));
+        }
+        sb.append("\n");
+        return sb.toString();
+    }
+}
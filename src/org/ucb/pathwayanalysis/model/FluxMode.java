@@ -0,0 +1,88 @@
+package org.ucb.pathwayanalysis.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An elementary flux mode of a pathway: a set of reactions, with whole
+ * number fluxes, that holds every intermediate at steady state and that
+ * contains no smaller such set.  Each one is a distinct route through the
+ * network.
+ *
+ * @author J. Christopher Anderson
+ */
+public class FluxMode {
+    private final CompiledPathway pathway;
+    private final long[] fluxes;
+
+    /**
+     * @param fluxes the flux through each reaction, by index
+     */
+    public FluxMode(CompiledPathway pathway, long[] fluxes) {
+        this.pathway = pathway;
+        this.fluxes = fluxes;
+    }
+
+    public CompiledPathway getPathway() {
+        return pathway;
+    }
+
+    public long getFlux(int rxn) {
+        return fluxes[rxn];
+    }
+
+    public long[] getFluxes() {
+        return fluxes.clone();
+    }
+
+    /**
+     * @return the number of reactions the mode uses
+     */
+    public int size() {
+        int count = 0;
+        for (long flux : fluxes) {
+            if (flux != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the net production of each chemical, leaving out the zeros
+     */
+    public Map<Chem, Long> getBalance() {
+        long[] net = new long[pathway.getChemCount()];
+        for (int r = 0; r < fluxes.length; r++) {
+            if (fluxes[r] == 0) {
+                continue;
+            }
+            CompiledRxn rxn = pathway.getRxn(r);
+            for (int k = 0; k < rxn.size(); k++) {
+                net[rxn.getChem(k)] += rxn.getCoeff(k) * fluxes[r];
+            }
+        }
+        Map<Chem, Long> out = new HashMap<>();
+        for (int i = 0; i < net.length; i++) {
+            if (net[i] != 0) {
+                out.put(pathway.getChem(i), net[i]);
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0; r < fluxes.length; r++) {
+            if (fluxes[r] == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(fluxes[r]).append(" x R").append(r);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package org.ucb.pathwayanalysis.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The result of flux balance analysis on a pathway: the flux through each
+ * reaction and the resulting net production of each chemical, inputs being
+ * negative.  If the linear program had no optimum the status says why and
+ * the fluxes are all zero.
+ *
+ * @author J. Christopher Anderson
+ */
+public class FluxSolution {
+
+    public enum Status {
+        OPTIMAL,
+        INFEASIBLE,
+        UNBOUNDED
+    }
+
+    //Fluxes smaller than this are reported as zero
+    private static final double ZERO_TOL = 1e-9;
+
+    private final CompiledPathway pathway;
+    private final Status status;
+    private final double objective;
+    private final double[] fluxes;
+    private final double[] balance;
+
+    /**
+     * @param fluxes the flux through each reaction, by index
+     * @param balance the net production of each chemical, by index
+     */
+    public FluxSolution(CompiledPathway pathway, Status status, double objective, double[] fluxes, double[] balance) {
+        this.pathway = pathway;
+        this.status = status;
+        this.objective = objective;
+        this.fluxes = fluxes;
+        this.balance = balance;
+    }
+
+    public CompiledPathway getPathway() {
+        return pathway;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the total flux into the outputs
+     */
+    public double getObjective() {
+        return objective;
+    }
+
+    public double getFlux(int rxn) {
+        return fluxes[rxn];
+    }
+
+    public double[] getFluxes() {
+        return fluxes.clone();
+    }
+
+    public double getBalance(int chem) {
+        return balance[chem];
+    }
+
+    /**
+     * @return the net production of each chemical, leaving out the zeros
+     */
+    public Map<Chem, Double> getBalance() {
+        Map<Chem, Double> out = new HashMap<>();
+        for (int i = 0; i < balance.length; i++) {
+            if (Math.abs(balance[i]) > ZERO_TOL) {
+                out.put(pathway.getChem(i), balance[i]);
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(pathway.getName()).append(": ").append(status);
+        if (status != Status.OPTIMAL) {
+            return sb.append("\n").toString();
+        }
+        sb.append(", output flux ").append(objective).append("\n");
+        for (int r = 0; r < fluxes.length; r++) {
+            if (Math.abs(fluxes[r]) > ZERO_TOL) {
+                sb.append("Reaction ").append(r).append(" : ").append(fluxes[r]).append("\n");
+            }
+        }
+        for (int i = 0; i < balance.length; i++) {
+            if (Math.abs(balance[i]) > ZERO_TOL) {
+                sb.append(pathway.getChem(i).getName()).append(" : ").append(balance[i]).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+}
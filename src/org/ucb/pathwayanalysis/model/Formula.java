@@ -0,0 +1,70 @@
+package org.ucb.pathwayanalysis.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The elemental composition and net charge of a chemical, with all of its
+ * components (salts, waters of hydration...) merged.  Elements are kept in
+ * Hill order: carbon, then hydrogen, then the rest alphabetically, or all
+ * alphabetically if there is no carbon.
+ *
+ * @author J. Christopher Anderson
+ */
+public class Formula {
+    private final Map<String, Integer> counts;
+    private final int charge;
+
+    public Formula(Map<String, Integer> counts, int charge) {
+        //Sort into Hill order, dropping elements with no atoms
+        Map<String, Integer> sorted = new TreeMap<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() != 0) {
+                sorted.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Map<String, Integer> hill = new LinkedHashMap<>();
+        if (sorted.containsKey("C")) {
+            hill.put("C", sorted.remove("C"));
+            if (sorted.containsKey("H")) {
+                hill.put("H", sorted.remove("H"));
+            }
+        }
+        hill.putAll(sorted);
+        this.counts = Collections.unmodifiableMap(hill);
+        this.charge = charge;
+    }
+
+    /**
+     * @return the number of atoms of each element, in Hill order
+     */
+    public Map<String, Integer> getCounts() {
+        return counts;
+    }
+
+    public int getCount(String element) {
+        Integer count = counts.get(element);
+        return count == null ? 0 : count;
+    }
+
+    public int getCharge() {
+        return charge;
+    }
+
+    /**
+     * @return the formula in Hill notation, without the charge
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            sb.append(entry.getKey());
+            if (entry.getValue() != 1) {
+                sb.append(entry.getValue());
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package org.ucb.pathwayanalysis.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a knockout scan: one row per variant of a pathway, giving
+ * the optimal output flux and the net of each tracked cofactor per unit of
+ * output.  The first row is the unmodified pathway.  Variants with no flux
+ * to the outputs have a row of zeros and a status saying why.
+ *
+ * @author J. Christopher Anderson
+ */
+public class KnockoutTable {
+    private final String pathway;
+    private final List<String> variants;
+    private final List<String> cofactors;
+    private final double[] values;
+    private final String[] status;
+
+    /**
+     * @param values the output flux then each cofactor, for each variant in
+     * row-major order
+     * @param status the status of each variant's solution
+     */
+    public KnockoutTable(String pathway, List<String> variants, List<String> cofactors, double[] values, String[] status) {
+        this.pathway = pathway;
+        this.variants = Collections.unmodifiableList(variants);
+        this.cofactors = Collections.unmodifiableList(cofactors);
+        this.values = values;
+        this.status = status;
+    }
+
+    public String getPathway() {
+        return pathway;
+    }
+
+    public List<String> getVariants() {
+        return variants;
+    }
+
+    public List<String> getCofactors() {
+        return cofactors;
+    }
+
+    public double getOutputFlux(int variant) {
+        return values[variant * (cofactors.size() + 1)];
+    }
+
+    /**
+     * @return the net of a tracked cofactor per unit of output
+     */
+    public double get(int variant, int cofactor) {
+        return values[variant * (cofactors.size() + 1) + cofactor + 1];
+    }
+
+    public String getStatus(int variant) {
+        return status[variant];
+    }
+
+    /**
+     * @return the table as tab-separated text with a header row
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("variant\tstatus\toutput");
+        for (String cofactor : cofactors) {
+            sb.append("\t").append(cofactor);
+        }
+        sb.append("\n");
+        for (int i = 0; i < variants.size(); i++) {
+            sb.append(variants.get(i)).append("\t").append(status[i]);
+            sb.append("\t").append(getOutputFlux(i));
+            for (int j = 0; j < cofactors.size(); j++) {
+                sb.append("\t").append(get(i, j));
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package org.ucb.pathwayanalysis.model;
+
+/**
+ * The molecular properties of a chemical that the analyses need, computed
+ * once from its InChI and then shared.  The elemental composition and
+ * charge are known when the properties were read from the InChI itself,
+ * and null when they came from ChemAxon.
+ *
+ * @author J. Christopher Anderson
+ */
+public class MolProperties {
+    private final double exactMass;
+    private final String formula;
+    private final Formula composition;
+
+    public MolProperties(double exactMass, String formula) {
+        this(exactMass, formula, null);
+    }
+
+    public MolProperties(double exactMass, String formula, Formula composition) {
+        this.exactMass = exactMass;
+        this.formula = formula;
+        this.composition = composition;
+    }
+
+    public double getExactMass() {
+        return exactMass;
+    }
+
+    public String getFormula() {
+        return formula;
+    }
+
+    /**
+     * @return the atoms and charge, or null if not known
+     */
+    public Formula getComposition() {
+        return composition;
+    }
+}
@@ -1,10 +1,17 @@
 package org.ucb.pathwayanalysis.model;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
+ * A parsed pathway.  Its collections are copied on construction and cannot
+ * be modified, so one parsed instance can be cached and analyzed from many
+ * threads at once.
  *
  * @author J. Christopher Anderson
  */
@@ -17,10 +24,10 @@ public class Pathway {
 
     public Pathway(String name, Set<Chem> inputs, Set<Chem> outputs, List<Rxn> reactions, Map<String, Chem> chemicals) {
         this.name = name;
-        this.inputs = inputs;
-        this.outputs = outputs;
-        this.reactions = reactions;
-        this.nameToChem = chemicals;
+        this.inputs = Collections.unmodifiableSet(new LinkedHashSet<>(inputs));
+        this.outputs = Collections.unmodifiableSet(new LinkedHashSet<>(outputs));
+        this.reactions = Collections.unmodifiableList(new ArrayList<>(reactions));
+        this.nameToChem = Collections.unmodifiableMap(new LinkedHashMap<>(chemicals));
     }
 
     public String getName() {
@@ -0,0 +1,73 @@
+package org.ucb.pathwayanalysis.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the ResultCache keeps for one pathway: its parsed model, whether its
+ * reactions validated, and its net balance by chemical name.  The model is
+ * only held in memory, so it is null for results read back from disk.
+ *
+ * @author J. Christopher Anderson
+ */
+public class PathwayResult {
+    private final String name;
+    private final Pathway pathway;
+    private final Boolean valid;
+    private final List<Integer> failures;
+    private final Map<String, Integer> balance;
+
+    /**
+     * @param valid whether every reaction balanced, null if validation failed
+     * @param failures the indices of the reactions that did not balance
+     * @param balance the net balance, null if the pathway could not be balanced
+     */
+    public PathwayResult(String name, Pathway pathway, Boolean valid, List<Integer> failures, Map<String, Integer> balance) {
+        this.name = name;
+        this.pathway = pathway;
+        this.valid = valid;
+        this.failures = Collections.unmodifiableList(failures);
+        this.balance = balance == null ? null : Collections.unmodifiableMap(balance);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the parsed pathway, or null if this result was read from disk
+     */
+    public Pathway getPathway() {
+        return pathway;
+    }
+
+    /**
+     * @return whether every reaction balanced, or null if they could not be
+     * checked
+     */
+    public Boolean isValid() {
+        return valid;
+    }
+
+    public List<Integer> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the net balance by chemical name, or null if the pathway could
+     * not be balanced
+     */
+    public Map<String, Integer> getBalance() {
+        return balance;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name);
+        sb.append(valid == null ? ": not validated" : valid ? ": valid" : ": invalid at " + failures);
+        sb.append(balance == null ? ", unable to balance" : ", " + balance);
+        return sb.toString();
+    }
+}
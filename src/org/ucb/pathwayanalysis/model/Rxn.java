@@ -1,8 +1,13 @@
 package org.ucb.pathwayanalysis.model;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
+ * A reaction, as the stoichiometry of its substrates and products.  The maps
+ * are copied on construction and cannot be modified, so a Rxn can be shared
+ * freely between threads.
  *
  * @author J. Christopher Anderson
  */
@@ -11,8 +16,8 @@ public class Rxn {
     private final Map<Chem, Integer> products;
 
     public Rxn( Map<Chem, Integer> substrates, Map<Chem, Integer> products) {
-        this.substrates = substrates;
-        this.products = products;
+        this.substrates = Collections.unmodifiableMap(new LinkedHashMap<>(substrates));
+        this.products = Collections.unmodifiableMap(new LinkedHashMap<>(products));
     }
 
 
@@ -0,0 +1,83 @@
+package org.ucb.pathwayanalysis.model;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The mass balance of a single reaction as computed by the MassValidator:
+ * the total exact mass of each side, weighted by stoichiometry.  When the
+ * composition of every chemical is known, it also holds the atoms of each
+ * element and the charge left over, substrates minus products, which catch
+ * imbalances that happen to weigh the same.
+ *
+ * @author J. Christopher Anderson
+ */
+public class RxnBalance {
+    private final int index;
+    private final Rxn rxn;
+    private final double substrateMass;
+    private final double productMass;
+    private final Map<String, Integer> elementDelta;
+    private final int chargeDelta;
+    private final boolean balanced;
+
+    public RxnBalance(int index, Rxn rxn, double substrateMass, double productMass, boolean balanced) {
+        this(index, rxn, substrateMass, productMass, null, 0, balanced);
+    }
+
+    public RxnBalance(int index, Rxn rxn, double substrateMass, double productMass,
+            Map<String, Integer> elementDelta, int chargeDelta, boolean balanced) {
+        this.index = index;
+        this.rxn = rxn;
+        this.substrateMass = substrateMass;
+        this.productMass = productMass;
+        this.elementDelta = elementDelta == null ? null : Collections.unmodifiableMap(elementDelta);
+        this.chargeDelta = chargeDelta;
+        this.balanced = balanced;
+    }
+
+    /**
+     * @return the position of the reaction within its Pathway
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public Rxn getRxn() {
+        return rxn;
+    }
+
+    public double getSubstrateMass() {
+        return substrateMass;
+    }
+
+    public double getProductMass() {
+        return productMass;
+    }
+
+    /**
+     * @return substrate mass minus product mass
+     */
+    public double getDelta() {
+        return substrateMass - productMass;
+    }
+
+    /**
+     * @return the atoms of each element that do not balance, substrates
+     * minus products, or null if some composition is not known
+     */
+    public Map<String, Integer> getElementDelta() {
+        return elementDelta;
+    }
+
+    /**
+     * @return substrate charge minus product charge
+     */
+    public int getChargeDelta() {
+        return chargeDelta;
+    }
+
+    public boolean isBalanced() {
+        return balanced;
+    }
+}
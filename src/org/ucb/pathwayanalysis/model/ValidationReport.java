@@ -0,0 +1,73 @@
+package org.ucb.pathwayanalysis.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The full result of validating a Pathway: the balance of every reaction,
+ * in the order they appear in the pathway.
+ *
+ * @author J. Christopher Anderson
+ */
+public class ValidationReport {
+    private final Pathway pathway;
+    private final List<RxnBalance> balances;
+
+    public ValidationReport(Pathway pathway, List<RxnBalance> balances) {
+        this.pathway = pathway;
+        this.balances = Collections.unmodifiableList(balances);
+    }
+
+    public Pathway getPathway() {
+        return pathway;
+    }
+
+    public List<RxnBalance> getBalances() {
+        return balances;
+    }
+
+    /**
+     * @return the balances of the reactions that failed validation
+     */
+    public List<RxnBalance> getFailures() {
+        List<RxnBalance> out = new ArrayList<>();
+        for (RxnBalance bal : balances) {
+            if (!bal.isBalanced()) {
+                out.add(bal);
+            }
+        }
+        return out;
+    }
+
+    public boolean isValid() {
+        for (RxnBalance bal : balances) {
+            if (!bal.isBalanced()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(pathway.getName());
+        sb.append(isValid() ? ": balanced\n" : ": unbalanced\n");
+        for (RxnBalance bal : getFailures()) {
+            sb.append("Reaction ");
+            sb.append(bal.getIndex());
+            sb.append(" off by ");
+            sb.append(bal.getDelta());
+            if (bal.getElementDelta() != null && (!bal.getElementDelta().isEmpty() || bal.getChargeDelta() != 0)) {
+                sb.append(", elements off by ");
+                sb.append(bal.getElementDelta());
+                sb.append(", charge off by ");
+                sb.append(bal.getChargeDelta());
+            }
+            sb.append("\n");
+            sb.append(bal.getRxn().toString());
+        }
+        return sb.toString();
+    }
+}